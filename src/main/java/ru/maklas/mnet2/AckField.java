@@ -0,0 +1,86 @@
+package ru.maklas.mnet2;
+
+/**
+ * Received seqs that have to be acknowledged: latest seq and a bitfield of 64 seqs before it.
+ * Bit i is set if (latest - 1 - i) was received. Remembers which of them were not sent yet.
+ * Not thread safe.
+ */
+class AckField {
+
+    private boolean started;
+    private int latest;
+    private long bits;
+    private boolean latestPending;
+    private long pendingBits;
+
+    /**
+     * @return true if adding this seq will push acks that were not sent yet out of the bitfield. Send them before adding
+     */
+    public boolean dropsPending(int seq){
+        if (!started) return false;
+        int diff = seq - latest;
+        if (diff <= 0) return false;
+        return diff >= 64
+                ? pendingBits != 0 || (latestPending && diff > 64)
+                : (pendingBits >>> (64 - diff)) != 0;
+    }
+
+    /**
+     * @return false if seq is too old for the bitfield. It has to be acknowledged separately
+     */
+    public boolean add(int seq){
+        if (!started) {
+            started = true;
+            latest = seq;
+            latestPending = true;
+            return true;
+        }
+        int diff = seq - latest;
+        if (diff > 0) {
+            bits = shiftIn(bits, true, diff);
+            pendingBits = shiftIn(pendingBits, latestPending, diff);
+            latest = seq;
+            latestPending = true;
+        } else if (diff == 0) {
+            latestPending = true;
+        } else if (diff >= -64) {
+            long bit = 1L << (-diff - 1);
+            bits |= bit;
+            pendingBits |= bit;
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    public boolean hasPending(){
+        return latestPending || pendingBits != 0;
+    }
+
+    /**
+     * Marks all acks as sent
+     */
+    public void sent(){
+        latestPending = false;
+        pendingBits = 0;
+    }
+
+    public int getLatest() {
+        return latest;
+    }
+
+    public long getBits() {
+        return bits;
+    }
+
+    /**
+     * Shifts bitfield when latest seq moves forward by diff. Previous latest seq becomes bit (diff - 1)
+     */
+    private static long shiftIn(long bits, boolean latest, int diff){
+        long shifted = diff >= 64 ? 0 : bits << diff;
+        if (latest && diff <= 64) {
+            shifted |= 1L << (diff - 1);
+        }
+        return shifted;
+    }
+}
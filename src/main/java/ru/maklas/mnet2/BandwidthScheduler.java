@@ -0,0 +1,130 @@
+package ru.maklas.mnet2;
+
+import com.badlogic.gdx.utils.Array;
+
+/**
+ * <p>Shares bytes/sec budget of the server between its sockets with deficit round-robin.
+ * Every server update budget is refilled and given out in rounds: each socket that has queued reliable packets,
+ * big object parts or stream parts gets quantum * weight bytes and sends what fits.
+ * Socket with nothing queued loses what it has left, as in DRR.</p>
+ * <p>Unreliable packets sent one by one wait in the queue as well, low priority ones are dropped if they didn't fit
+ * in this update. Acks, pings, resends, unreliable batches and sequenced packets are never delayed,
+ * but are taken from the budget, so queued data waits while they use it up.</p>
+ * <p>Also measures how fast every socket sends, whether limit is set or not.</p>
+ * Used only by the thread that updates server.
+ */
+class BandwidthScheduler {
+
+    private static final double statsPeriod = 1d; //seconds
+    private static final long statsInterval = 250 * 1000000L; //nanos
+
+    private final int quantum;
+    private volatile long limit;
+    private double tokens;
+    private long lastTime = -1;
+    private int next;
+    private volatile double totalRate;
+    private boolean wasLimited;
+
+    /**
+     * @param quantum bytes given to a socket with weight 1 in one round. At least one full packet
+     */
+    BandwidthScheduler(int quantum) {
+        this.quantum = quantum;
+    }
+
+    long getLimit() {
+        return limit;
+    }
+
+    /**
+     * @param limit bytes per second. 0 or less - no limit
+     */
+    void setLimit(long limit) {
+        this.limit = Math.max(0, limit);
+    }
+
+    double getTotalRate() {
+        return totalRate;
+    }
+
+    /**
+     * Without limit only stats are updated, so all sockets are visited a few times a second instead of every update
+     */
+    boolean needsUpdate(long nanoTime){
+        return limit > 0 || wasLimited || lastTime < 0 || nanoTime - lastTime >= statsInterval;
+    }
+
+    void update(Array<SocketImpl> sockets, long nanoTime, int burstMillis){
+        double dt = lastTime < 0 ? 0 : (nanoTime - lastTime) / 1000000000d;
+        lastTime = nanoTime;
+        long limit = this.limit;
+        boolean limited = limit > 0;
+        wasLimited = limited;
+        double k = Math.min(1, dt / statsPeriod);
+
+        double total = 0;
+        for (SocketImpl socket : sockets) {
+            BandwidthShare share = socket.bandwidth;
+            long sent = share.sentBytes.get();
+            long unscheduled = sent - share.scheduledBytes.get();
+            if (dt > 0) {
+                share.sendRate += k * ((sent - share.lastSent) / dt - share.sendRate);
+            }
+            tokens -= unscheduled - share.lastUnscheduled;
+            share.lastSent = sent;
+            share.lastUnscheduled = unscheduled;
+            total += share.sendRate;
+
+            if (share.limited != limited) {
+                share.limited = limited;
+                share.allowance.set(0);
+                if (!limited) socket.sendScheduled();
+            }
+        }
+        totalRate = total;
+
+        if (!limited) {
+            tokens = 0;
+            return;
+        }
+        tokens = Math.min(limit * (burstMillis / 1000d), tokens + limit * dt);
+
+        int n = sockets.size;
+        if (n == 0) return;
+        next = (next + 1) % n;
+        boolean progress = true;
+        while (tokens > 0 && progress) {
+            progress = false;
+            for (int i = 0; i < n && tokens > 0; i++) {
+                SocketImpl socket = sockets.get((next + i) % n);
+                BandwidthShare share = socket.bandwidth;
+                if (!socket.isConnected() || !socket.hasScheduledBacklog()) {
+                    tokens += share.allowance.getAndSet(0);
+                    continue;
+                }
+                long socketQuantum = (long) quantum * Math.max(1, share.weight);
+                long grant = (long) Math.min(socketQuantum, Math.ceil(tokens));
+                share.allowance.addAndGet(grant);
+                tokens -= grant;
+
+                long sentBefore = share.scheduledBytes.get();
+                socket.sendScheduled();
+                if (share.scheduledBytes.get() != sentBefore) {
+                    progress = true;
+                }
+
+                //Сокет, упёршийся в своё окно, не копит больше двух квантов
+                long excess = share.allowance.get() - 2 * socketQuantum;
+                if (excess > 0) {
+                    share.allowance.addAndGet(-excess);
+                    tokens += excess;
+                }
+            }
+        }
+
+        for (SocketImpl socket : sockets) {
+            socket.dropLowPriorityUnreliable();
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package ru.maklas.mnet2;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Part of server's bandwidth budget that belongs to one socket. See {@link ServerSocket#setBandwidthLimit(long)}.
+ * Counters are updated by sending threads, the rest is used only by the thread that updates server.
+ */
+class BandwidthShare {
+
+    //Всё, что отправлено сокетом
+    final AtomicLong sentBytes = new AtomicLong();
+    //Отправлено из выделенного планировщиком
+    final AtomicLong scheduledBytes = new AtomicLong();
+    //Сколько ещё байт можно отправить из очереди. Это дефицит DRR
+    final AtomicLong allowance = new AtomicLong();
+    volatile boolean limited;
+    volatile int weight = 1;
+    //Используются только потоком сервера
+    long lastSent;
+    long lastUnscheduled;
+    double sendRate;
+
+    /**
+     * @return true if socket is not limited or was given enough bytes. Doesn't take them
+     */
+    boolean allows(int bytes){
+        return !limited || allowance.get() >= bytes;
+    }
+
+    void take(int bytes){
+        if (limited) {
+            allowance.addAndGet(-bytes);
+            scheduledBytes.addAndGet(bytes);
+        }
+    }
+}
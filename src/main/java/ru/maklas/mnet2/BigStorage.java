@@ -1,19 +1,67 @@
 package ru.maklas.mnet2;
 
+/**
+ * Reassembles bigRequest parts. Every part is copied straight to its place in a single buffer,
+ * received parts are tracked by a bitset.
+ */
 public class BigStorage {
 
-    private int totalPackets;
-    public SortedIntList<byte[]> parts;
+    public final int firstSeq;
+    public final int totalPackets;
+    private final int partSize;
+    private final byte[] data;
+    private final long[] received;
+    private int receivedCount;
+    private int length;
 
-    public BigStorage(int totalPackets) {
+    /**
+     * @param partSize size of every part except the last one
+     */
+    public BigStorage(int firstSeq, int totalPackets, int partSize) {
+        this.firstSeq = firstSeq;
         this.totalPackets = totalPackets;
-        parts = new SortedIntList<byte[]>();
+        this.partSize = partSize;
+        this.data = new byte[totalPackets * partSize];
+        this.received = new long[(totalPackets + 63) >> 6];
+        this.length = (totalPackets - 1) * partSize;
     }
 
-    public boolean put(int id, byte[] part){
-        parts.insert(id, part);
-        return parts.size >= totalPackets;
+    /**
+     * @return true if all parts are received
+     * @throws IllegalArgumentException if part doesn't fit
+     */
+    public boolean put(int index, byte[] src, int offset, int partLength){
+        if (index < 0 || index >= totalPackets) {
+            throw new IllegalArgumentException("Part " + index + " of " + totalPackets);
+        }
+        boolean last = index == totalPackets - 1;
+        if (last ? partLength > partSize : partLength != partSize) {
+            throw new IllegalArgumentException("Part size " + partLength + " doesn't match " + partSize + ". Is bufferSize the same on both ends?");
+        }
+        long bit = 1L << index;
+        if ((received[index >> 6] & bit) == 0) {
+            received[index >> 6] |= bit;
+            receivedCount++;
+            System.arraycopy(src, offset, data, index * partSize, partLength);
+            if (last) {
+                length += partLength;
+            }
+        }
+        return receivedCount >= totalPackets;
     }
 
+    /**
+     * Reassembled bytes. Valid only after all parts are received. Use with {@link #getLength()}
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    public int getLength() {
+        return length;
+    }
 
+    public int getLastSeq() {
+        return firstSeq + totalPackets - 1;
+    }
 }
@@ -0,0 +1,78 @@
+package ru.maklas.mnet2;
+
+import com.badlogic.gdx.utils.Array;
+
+/**
+ * Pool of packet buffers. Every length up to maxLength has its own slab, so a pooled buffer is exactly as long as
+ * the packet and data.length stays the packet length everywhere. Thread safe.
+ */
+class BufferPool {
+
+    private final Array<byte[]>[] slabs;
+    private final int maxBytes;
+    private int pooledBytes;
+    private long allocated;
+
+    /**
+     * @param maxLength buffers longer than this are not pooled
+     * @param maxBytes how many bytes free buffers can take in total. Buffers over it are left to GC
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    BufferPool(int maxLength, int maxBytes) {
+        this.slabs = new Array[maxLength + 1];
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return buffer of exactly this length. Content is not cleared
+     */
+    synchronized byte[] obtain(int length){
+        if (length < slabs.length) {
+            Array<byte[]> slab = slabs[length];
+            if (slab != null && slab.size > 0) {
+                pooledBytes -= length;
+                return slab.pop();
+            }
+        }
+        allocated++;
+        return new byte[length];
+    }
+
+    /**
+     * Returns buffer to the pool. Buffer must not be used after that
+     */
+    synchronized void free(byte[] buffer){
+        int length = buffer.length;
+        if (length >= slabs.length || pooledBytes + length > maxBytes) return;
+        Array<byte[]> slab = slabs[length];
+        if (slab == null) {
+            slab = new Array<byte[]>(false, 16);
+            slabs[length] = slab;
+        }
+        slab.add(buffer);
+        pooledBytes += length;
+    }
+
+    /**
+     * @return copy of the first 'length' bytes of source
+     */
+    byte[] copy(byte[] source, int length){
+        byte[] copy = obtain(length);
+        System.arraycopy(source, 0, copy, 0, length);
+        return copy;
+    }
+
+    /**
+     * @return how many bytes free buffers take now
+     */
+    synchronized int getPooledBytes(){
+        return pooledBytes;
+    }
+
+    /**
+     * @return how many buffers were created because there was no free one
+     */
+    synchronized long getAllocated(){
+        return allocated;
+    }
+}
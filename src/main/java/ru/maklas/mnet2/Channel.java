@@ -0,0 +1,25 @@
+package ru.maklas.mnet2;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Additional ordered channel of a socket. Has its own seq space, resend window, reorder window and acks,
+ * so packet loss on one channel doesn't delay the others. Channel 0 is the socket itself.
+ */
+class Channel {
+
+    final int id;
+    final AtomicInteger seq = new AtomicInteger();
+    //Отправленные пакеты этого канала, ждущие подтверждения. Синхронизируется на себе.
+    final ResendWindow requestList = new ResendWindow();
+    //Используются только потоком получения
+    final ReorderWindow<Object> receivingSortQueue;
+    int lastInsertedSeq = -1;
+    //Защищено локом ackBuffer сокета
+    final AckField acks = new AckField();
+
+    Channel(int id, int maxReorderWindow) {
+        this.id = id;
+        this.receivingSortQueue = new ReorderWindow<Object>(maxReorderWindow);
+    }
+}
@@ -0,0 +1,134 @@
+package ru.maklas.mnet2;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Lock-free multi-producer single-consumer queue of linked fixed-size chunks. Grows by a chunk when the last one is full,
+ * consumed chunks are left to GC.
+ * <p>Producer claims a slot with one getAndIncrement and publishes the item into it.
+ * Consumer reads slots in claim order and stops at a slot that is claimed, but not yet published, so order is kept.</p>
+ * <p>Optional limit of items. {@link #put(Object)} refuses items over it and counts them as dropped,
+ * {@link #putForced(Object)} doesn't. Size is checked without a lock, so limit can be exceeded by a few concurrent puts.</p>
+ */
+class ChunkedQueue<T> {
+
+    private static final int chunkSize = 256;
+
+    private final AtomicReference<Chunk<T>> tail;
+    private Chunk<T> head; //consumer
+    private int headIndex; //consumer
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicInteger highWaterMark = new AtomicInteger();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile int limit;
+
+    /**
+     * @param limit max number of items. 0 - unlimited
+     */
+    ChunkedQueue(int limit) {
+        this.limit = Math.max(0, limit);
+        Chunk<T> chunk = new Chunk<T>();
+        this.head = chunk;
+        this.tail = new AtomicReference<Chunk<T>>(chunk);
+    }
+
+    /**
+     * Can be called by many threads
+     * @return false if queue is full. Item is not added then
+     */
+    boolean put(T item){
+        int limit = this.limit;
+        if (limit > 0 && size.get() >= limit) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        putForced(item);
+        return true;
+    }
+
+    /**
+     * Adds item even if queue is full. Can be called by many threads
+     */
+    void putForced(T item){
+        if (item == null) throw new NullPointerException();
+        int newSize = size.incrementAndGet();
+        int mark = highWaterMark.get();
+        while (newSize > mark && !highWaterMark.compareAndSet(mark, newSize)) {
+            mark = highWaterMark.get();
+        }
+
+        while (true) {
+            Chunk<T> chunk = tail.get();
+            int i = chunk.claimed.getAndIncrement();
+            if (i < chunkSize) {
+                chunk.items.set(i, item);
+                return;
+            }
+            //Чанк заполнен. Кто первый - привязывает новый, остальные помогают сдвинуть tail
+            Chunk<T> next = chunk.next.get();
+            if (next == null) {
+                Chunk<T> created = new Chunk<T>();
+                next = chunk.next.compareAndSet(null, created) ? created : chunk.next.get();
+            }
+            tail.compareAndSet(chunk, next);
+        }
+    }
+
+    /**
+     * Only by one thread
+     * @return next item or null if queue is empty
+     */
+    T poll(){
+        Chunk<T> chunk = head;
+        if (headIndex == chunkSize) {
+            Chunk<T> next = chunk.next.get();
+            if (next == null) return null;
+            head = chunk = next;
+            headIndex = 0;
+        }
+        T item = chunk.items.get(headIndex);
+        if (item == null) return null;
+        chunk.items.set(headIndex, null);
+        headIndex++;
+        size.decrementAndGet();
+        return item;
+    }
+
+    int size(){
+        return size.get();
+    }
+
+    /**
+     * @return max size the queue ever had
+     */
+    int getHighWaterMark(){
+        return highWaterMark.get();
+    }
+
+    /**
+     * @return how many items were refused by {@link #put(Object)} because of the limit
+     */
+    long getDropped(){
+        return dropped.get();
+    }
+
+    int getLimit(){
+        return limit;
+    }
+
+    /**
+     * @param limit 0 - unlimited
+     */
+    void setLimit(int limit){
+        this.limit = Math.max(0, limit);
+    }
+
+    private static class Chunk<T> {
+        final AtomicReferenceArray<T> items = new AtomicReferenceArray<T>(chunkSize);
+        final AtomicInteger claimed = new AtomicInteger();
+        final AtomicReference<Chunk<T>> next = new AtomicReference<Chunk<T>>();
+    }
+}
@@ -1,7 +1,5 @@
 package ru.maklas.mnet2;
 
-import java.io.IOException;
-import java.net.DatagramPacket;
 import java.net.InetAddress;
 
 public class Connection {
@@ -93,15 +91,7 @@ public class Connection {
     }
 
     private void send(byte[] data){
-        DatagramPacket sendPacket = serverSocket.sendPacket;
-        sendPacket.setAddress(socket.address);
-        sendPacket.setPort(socket.port);
-        sendPacket.setData(data);
-        try {
-            serverSocket.udp.send(sendPacket);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        socket.sendData(data);
     }
 
     @Override
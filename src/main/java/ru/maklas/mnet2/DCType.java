@@ -5,6 +5,8 @@ public class DCType {
     public static final String TIME_OUT = "TIME_OUT";
     public static final String CLOSED = "CLOSED";
     public static final String SERVER_SHUTDOWN = "SERVER_SHUTDOWN";
+    //Получено больше, чем помещается в очередь. См. SocketImpl.receivingQueueSize
+    public static final String QUEUE_OVERFLOW = "QUEUE_OVERFLOW";
 
 
     //Закрыть сокет можно только если:
@@ -5,7 +5,9 @@ import com.badlogic.gdx.utils.AtomicQueue;
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
 import java.util.concurrent.LinkedBlockingQueue;
 
 /**
@@ -74,6 +76,29 @@ public class HighPingUDPSocket implements UDPSocket, Runnable{
         }
     }
 
+    @Override
+    public void send(ByteBuffer buffer, InetSocketAddress address) throws IOException {
+        final byte[] data = new byte[buffer.remaining()];
+        buffer.get(data);
+        sender.add(new DataTriplet(address == null ? null : address.getAddress(), address == null ? 0 : address.getPort(), data));
+    }
+
+    @Override
+    public InetSocketAddress receive(ByteBuffer buffer) throws IOException {
+        try {
+            final DataTriplet take = receiver.take();
+            buffer.put(take.data);
+            long currentTime = System.currentTimeMillis();
+            while (currentTime - take.creationTime < receivingPing){
+                Thread.sleep(1);
+                currentTime = System.currentTimeMillis();
+            }
+            return new InetSocketAddress(take.address, take.port);
+        } catch (InterruptedException e) {
+            throw new SocketException("Interrupted");
+        }
+    }
+
     @Override
     public void run() {
 
@@ -0,0 +1,87 @@
+package ru.maklas.mnet2;
+
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Received by {@link SocketProcessor} when the other end starts {@link Socket#sendStream(java.io.InputStream, long, Object, StreamListener)}.
+ * Must be accepted or rejected while it's being processed, otherwise it's rejected.
+ * Data is written to the sink during {@link Socket#update(SocketProcessor)} as it arrives in order, so only a window of it is kept in memory.
+ */
+public class IncomingStream {
+
+    final int id;
+    private final long size;
+    private final Object header;
+    WritableByteChannel sink;
+    StreamListener listener;
+    long written;
+    //До какого байта отправителю разрешено слать. Растёт по мере записи в sink
+    long granted;
+    private boolean madeChoice = false;
+
+    IncomingStream(int id, long size, Object header, long granted) {
+        this.id = id;
+        this.size = size;
+        this.header = header;
+        this.granted = granted;
+    }
+
+    /**
+     * @return Object that was passed to sendStream() to describe the stream
+     */
+    public Object getHeader() {
+        return header;
+    }
+
+    /**
+     * @return size of the stream in bytes or -1 if sender doesn't know it
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Starts receiving. Sink is not closed when stream ends. FileChannel can be used to write straight to a file.
+     * @param listener can be null
+     */
+    public void accept(WritableByteChannel sink, StreamListener listener){
+        if (madeChoice) throw new IllegalStateException("Stream was already accepted or rejected");
+        madeChoice = true;
+        this.sink = sink;
+        this.listener = listener;
+    }
+
+    /**
+     * Same as {@link #accept(WritableByteChannel, StreamListener)}. OutputStream is not closed when stream ends.
+     */
+    public void accept(OutputStream sink, StreamListener listener){
+        accept(Channels.newChannel(sink), listener);
+    }
+
+    /**
+     * Sender will be notified and will stop sending
+     */
+    public void reject(){
+        if (madeChoice) throw new IllegalStateException("Stream was already accepted or rejected");
+        madeChoice = true;
+    }
+
+    public boolean isMadeChoice() {
+        return madeChoice;
+    }
+
+    public boolean isAccepted() {
+        return sink != null;
+    }
+
+    @Override
+    public String toString() {
+        return "{" +
+                "id=" + id +
+                ", size=" + size +
+                ", header=" + header +
+                '}';
+    }
+}
@@ -4,7 +4,9 @@ import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
 
 /**
  * Created by amaklakov on 02.11.2017.
@@ -13,6 +15,10 @@ import java.net.SocketException;
 public class JavaUDPSocket implements UDPSocket {
 
     private final DatagramSocket socket;
+    private final DatagramPacket bufferSendPacket = new DatagramPacket(new byte[0], 0);
+    private final DatagramPacket bufferReceivePacket = new DatagramPacket(new byte[0], 0);
+    private byte[] sendCopy = new byte[0];
+    private byte[] receiveCopy = new byte[0];
 
     public JavaUDPSocket() throws SocketException {
         this(new DatagramSocket());
@@ -26,6 +32,23 @@ public class JavaUDPSocket implements UDPSocket {
         this.socket = dSocket;
     }
 
+    /**
+     * Creates socket bound to the port with SO_REUSEPORT enabled. Multiple sockets can be bound to the same port this way
+     * and OS will spread incoming flows across them.
+     * @throws SocketException if SO_REUSEPORT is not supported by JVM (below Java 9) or OS
+     */
+    public static JavaUDPSocket reusePort(int port) throws SocketException {
+        DatagramSocket socket = new DatagramSocket(null);
+        try {
+            Utils.enableReusePort(socket);
+            socket.bind(new InetSocketAddress(port));
+        } catch (SocketException e) {
+            socket.close();
+            throw e;
+        }
+        return new JavaUDPSocket(socket);
+    }
+
 
 
     @Override
@@ -43,6 +66,55 @@ public class JavaUDPSocket implements UDPSocket {
         socket.receive(packet);
     }
 
+    /**
+     * Array-backed buffers are sent as is, direct buffers are copied into byte[] first.
+     */
+    @Override
+    public void send(ByteBuffer buffer, InetSocketAddress address) throws IOException {
+        int length = buffer.remaining();
+        synchronized (bufferSendPacket) {
+            DatagramPacket packet = bufferSendPacket;
+            if (buffer.hasArray()) {
+                packet.setData(buffer.array(), buffer.arrayOffset() + buffer.position(), length);
+            } else {
+                if (sendCopy.length < length) {
+                    sendCopy = new byte[length];
+                }
+                buffer.duplicate().get(sendCopy, 0, length);
+                packet.setData(sendCopy, 0, length);
+            }
+            if (!socket.isConnected()) {
+                packet.setSocketAddress(address);
+            }
+            socket.send(packet);
+        }
+        buffer.position(buffer.limit());
+    }
+
+    /**
+     * Array-backed buffers are received into directly, direct buffers receive a copy.
+     */
+    @Override
+    public InetSocketAddress receive(ByteBuffer buffer) throws IOException {
+        int length = buffer.remaining();
+        synchronized (bufferReceivePacket) {
+            DatagramPacket packet = bufferReceivePacket;
+            if (buffer.hasArray()) {
+                packet.setData(buffer.array(), buffer.arrayOffset() + buffer.position(), length);
+                socket.receive(packet);
+                buffer.position(buffer.position() + packet.getLength());
+            } else {
+                if (receiveCopy.length < length) {
+                    receiveCopy = new byte[length];
+                }
+                packet.setData(receiveCopy, 0, length);
+                socket.receive(packet);
+                buffer.put(receiveCopy, 0, packet.getLength());
+            }
+            return (InetSocketAddress) packet.getSocketAddress();
+        }
+    }
+
     @Override
     public void setReceiveTimeout(int millis) throws SocketException {
         socket.setSoTimeout(millis);
@@ -0,0 +1,182 @@
+package ru.maklas.mnet2;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+
+/**
+ * {@link DatagramChannel} implementation.
+ * <p>Datagrams are written and read straight from the {@link ByteBuffer} that is passed to
+ * {@link #send(ByteBuffer, InetSocketAddress)} and {@link #receive(ByteBuffer)}, so direct buffers
+ * reach the kernel without any intermediate copy and no {@link DatagramPacket} is involved.
+ * {@link DatagramPacket} methods are still supported, but they wrap packet's array on every call.</p>
+ * <p>Channel works in non-blocking mode. Receiving blocks on a {@link Selector}, which allows receive timeout to work.
+ * If OS send buffer is full, sending thread yields until there is space for the datagram.</p>
+ */
+public class NioUDPSocket implements UDPSocket {
+
+    private final DatagramChannel channel;
+    private final Selector selector;
+    private volatile int receiveTimeout = 0;
+
+    public NioUDPSocket() throws IOException {
+        this(open(new InetSocketAddress(0)));
+    }
+
+    public NioUDPSocket(int port) throws IOException {
+        this(open(new InetSocketAddress(port)));
+    }
+
+    /**
+     * @param channel bound channel. Will be switched to non-blocking mode.
+     */
+    public NioUDPSocket(DatagramChannel channel) throws IOException {
+        this.channel = channel;
+        this.channel.configureBlocking(false);
+        this.selector = Selector.open();
+        this.channel.register(selector, SelectionKey.OP_READ);
+    }
+
+    /**
+     * Creates socket bound to the port with SO_REUSEPORT enabled. Multiple sockets can be bound to the same port this way
+     * and OS will spread incoming flows across them.
+     * @throws SocketException if SO_REUSEPORT is not supported by JVM (below Java 9) or OS
+     */
+    public static NioUDPSocket reusePort(int port) throws IOException {
+        return new NioUDPSocket(open(new InetSocketAddress(port), true));
+    }
+
+    private static DatagramChannel open(InetSocketAddress bindAddress) throws IOException {
+        return open(bindAddress, false);
+    }
+
+    private static DatagramChannel open(InetSocketAddress bindAddress, boolean reusePort) throws IOException {
+        DatagramChannel channel = DatagramChannel.open();
+        try {
+            if (reusePort) {
+                Utils.enableReusePort(channel);
+            }
+            channel.socket().bind(bindAddress);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
+    /**
+     * @return underlying channel
+     */
+    public DatagramChannel getChannel() {
+        return channel;
+    }
+
+    @Override
+    public int getLocalPort() {
+        return channel.socket().getLocalPort();
+    }
+
+    @Override
+    public void send(DatagramPacket packet) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(packet.getData(), packet.getOffset(), packet.getLength());
+        send(buffer, (InetSocketAddress) packet.getSocketAddress());
+    }
+
+    @Override
+    public void send(ByteBuffer buffer, InetSocketAddress address) throws IOException {
+        DatagramChannel channel = this.channel;
+        boolean connected = channel.isConnected();
+        while (buffer.hasRemaining()) {
+            int sent = connected ? channel.write(buffer) : channel.send(buffer, address);
+            if (sent == 0){
+                Thread.yield();
+            }
+        }
+    }
+
+    @Override
+    public void receive(DatagramPacket packet) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(packet.getData(), packet.getOffset(), packet.getData().length - packet.getOffset());
+        InetSocketAddress address = receive(buffer);
+        packet.setLength(buffer.position() - packet.getOffset());
+        packet.setSocketAddress(address);
+    }
+
+    @Override
+    public InetSocketAddress receive(ByteBuffer buffer) throws IOException {
+        int timeout = receiveTimeout;
+        long deadline = timeout > 0 ? System.currentTimeMillis() + timeout : 0;
+        while (true) {
+            SocketAddress address = channel.receive(buffer);
+            if (address != null) {
+                return (InetSocketAddress) address;
+            }
+
+            long wait = 0;
+            if (deadline != 0){
+                wait = deadline - System.currentTimeMillis();
+                if (wait <= 0){
+                    throw new SocketTimeoutException("Receive timed out");
+                }
+            }
+            try {
+                selector.select(wait);
+                selector.selectedKeys().clear();
+            } catch (ClosedSelectorException e) {
+                throw new SocketException("Socket closed");
+            }
+            if (!channel.isOpen()){
+                throw new SocketException("Socket closed");
+            }
+        }
+    }
+
+    @Override
+    public void setReceiveTimeout(int millis) throws SocketException {
+        receiveTimeout = millis;
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public boolean isClosed() {
+        return !channel.isOpen();
+    }
+
+    @Override
+    public void connect(InetAddress address, int port) {
+        if (!channel.isConnected()) {
+            try {
+                channel.connect(new InetSocketAddress(address, port));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    @Override
+    public void setBroadcast(boolean enabled) throws SocketException {
+        channel.socket().setBroadcast(enabled);
+    }
+}
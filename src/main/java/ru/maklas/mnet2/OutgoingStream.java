@@ -0,0 +1,43 @@
+package ru.maklas.mnet2;
+
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stream that is being sent. Parts are read from the source only when there is room in the send window
+ * and the receiver gave enough credit.
+ */
+class OutgoingStream {
+
+    final int id;
+    final InputStream source;
+    final long size;
+    final StreamListener listener;
+    //Используются только потоком, отправляющим части
+    long sent;
+    //Прочитанная часть, которой не хватило окна. Seq ещё не назначен
+    byte[] next;
+    boolean allSent;
+    boolean failed;
+    long reportedProgress;
+    long lastProbe;
+    //Пробы подряд, пока кредит исчерпан. Каждая следующая ждёт вдвое дольше
+    int probes;
+    //Изменяются потоком получения подтверждений
+    final AtomicInteger inFlight = new AtomicInteger();
+    final AtomicLong acknowledged = new AtomicLong();
+    volatile boolean cancelled;
+    //streamStart отправлен. До этого поток ждёт в pendingReliable за ранее отправленными пакетами
+    volatile boolean started;
+    //До какого байта получатель разрешил отправлять. Изменяется потоком получения
+    volatile long credit;
+
+    OutgoingStream(int id, InputStream source, long size, StreamListener listener, long credit) {
+        this.id = id;
+        this.source = source;
+        this.size = size;
+        this.listener = listener;
+        this.credit = credit;
+    }
+}
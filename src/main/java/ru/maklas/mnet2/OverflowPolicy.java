@@ -0,0 +1,19 @@
+package ru.maklas.mnet2;
+
+/**
+ * What socket does when its receiving queue is full and a reliable object arrives. See {@link SocketImpl#receivingQueueSize}.
+ * Unreliable and sequenced objects are always dropped and counted
+ */
+public enum OverflowPolicy {
+
+    /**
+     * New objects are dropped and counted. Reliable objects are already acknowledged, so they are lost for good
+     */
+    DROP,
+
+    /**
+     * Socket is closed with {@link DCType#QUEUE_OVERFLOW}, so no reliable data is lost silently
+     */
+    DISCONNECT
+
+}
@@ -3,7 +3,9 @@ package ru.maklas.mnet2;
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
 
 /**
  * Simulates packet loss over UDP
@@ -66,6 +68,31 @@ public class PacketLossUDPSocket implements UDPSocket{
         }
     }
 
+    @Override
+    public void send(ByteBuffer buffer, InetSocketAddress address) throws IOException {
+        if (Math.random() > sendLoss) {
+            delegate.send(buffer, address);
+        } else {
+            buffer.position(buffer.limit());
+        }
+    }
+
+    @Override
+    public InetSocketAddress receive(ByteBuffer buffer) throws IOException {
+        if (receiveLoss == 0){
+            return delegate.receive(buffer);
+        } else {
+            int position = buffer.position();
+            while (true){
+                InetSocketAddress address = delegate.receive(buffer);
+                if (Math.random() > receiveLoss){
+                    return address;
+                }
+                buffer.position(position);
+            }
+        }
+    }
+
     @Override
     public void setReceiveTimeout(int millis) throws SocketException {
         delegate.setReceiveTimeout(millis);
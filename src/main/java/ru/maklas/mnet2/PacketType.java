@@ -13,20 +13,71 @@ class PacketType {
 
     static final byte reliableRequest = 10;
     static final byte reliableAck = 11;
+    //[1-type, 4-latest seq, 8-bitfield, 2-window]. Bit i set if (latest seq - 1 - i) was received too
+    static final byte selectiveAck = 12;
+    static final int selectiveAckSize = 15;
+    //[1-type, 4-seq, x-data]. Как reliableRequest, но доставляется сразу при получении. seq свой, не общий с reliableRequest
+    static final byte reliableUnordered = 13;
+    //[1-type, 4-seq, 1-channel, x-data]. seq канала, а не сокета
+    static final byte channelRequest = 14;
+    //[1-type, 4-latest seq, 8-bitfield, 1-channel, 2-window]
+    static final byte channelAck = 15;
+    static final int channelAckSize = 16;
+    //[1-type, 4-seq]. Надёжный. Пакет с этим seq просрочен, получатель пропускает его
+    static final byte expired = 16;
+    //[1-type, 4-seq (0), 2-window]. Ненадёжный. Получатель освободил место в очереди после того, как окно почти закрылось
+    static final byte windowUpdate = 17;
+    static final int windowUpdateSize = 7;
+    //[1-type, 4-latest seq, 8-bitfield, 2-window]. Как selectiveAck, но для seq reliableUnordered
+    static final byte unorderedAck = 18;
+    //Значение window: сколько ещё объектов готов принять получатель. unlimitedWindow - без ограничений
+    static final int unlimitedWindow = 0xFFFF;
 
     static final byte unreliable = 20;
+    //[1-type, 4-seq, x-data]. Отбрасывается, если уже получен пакет с большим seq
+    static final byte sequenced = 21;
 
     static final byte batch = 30;
     static final byte batchUnreliable = 31;
+    //[1-type, 4-seq, 1-channel, 1-size, x-data]
+    static final byte channelBatch = 32;
+    //[1-type, 4-seq, 1-size, x-data]. Как batch, но отбрасывается как sequenced
+    static final byte batchSequenced = 33;
 
-    //[1-type, 4-seq, 2-id, 2-size, x-data]. Max - 15 MB with buffersize == 512
+    //[1-type, 4-seq, 2-id, 2-size, 2-index, x-data]. Max - 15 MB with buffersize == 512
     static final byte bigRequest = 40;
+    static final int bigHeaderSize = 11;
+    //Количество частей и индекс - short со знаком
+    static final int maxBigParts = Short.MAX_VALUE;
+
+    //[1-type, 4-seq, 2-id, 8-size, x-header]
+    static final byte streamStart = 41;
+    //[1-type, 4-seq, 2-id, 1-flags, x-data]
+    static final byte streamData = 42;
+    //[1-type, 4-seq (0), 2-id]. Получатель отказался от потока. Ненадёжный, повторяется на каждую часть.
+    static final byte streamCancel = 43;
+    //[1-type, 4-seq (0), 2-id, 8-limit]. Получатель разрешает отправить поток до байта limit. Ненадёжный, повторяется,
+    //пока у отправителя остаётся меньше половины кредита
+    static final byte streamCredit = 44;
+    static final int streamCreditSize = 15;
+    static final int streamHeaderSize = 8;
+    static final byte streamLast = 1;
+    static final byte streamAborted = 2;
+    //Часть отправлена без кредита. Получатель в ответ повторяет streamCredit, даже если уже отправлял его
+    static final byte streamProbe = 4;
 
     static final byte pingRequest = 110;
     static final byte pingResponse = 111;
 
     static final byte disconnect = 127;
 
+    //Флаг в type. В конце пакета добавлены подтверждения: [4-latest seq, 8-bitfield, 2-window] как в selectiveAck
+    static final byte ackFlag = (byte) 0x80;
+    static final int ackTrailerSize = 14;
+
+    //Количество пакетов в батче хранится в одном байте со знаком
+    static final int maxBatchSize = 127;
+
 
     static byte[] build5byte(byte settings, int seq, byte [] data){
         int dataLength = data.length;
@@ -83,13 +134,35 @@ class PacketType {
         return result;
     }
 
+    /**
+     * @return how many objects reliable packet puts in the receiving queue of the other end. Batch puts all of its objects
+     */
+    static int objectCount(byte[] fullPackage){
+        switch (fullPackage[0]) {
+            case batch:
+                return fullPackage[5] & 0xFF;
+            case channelBatch:
+                return fullPackage[6] & 0xFF;
+            default:
+                return 1;
+        }
+    }
+
     /**
      * @return (byte[] batchRequest, int currentPosition)
      */
     public static Object[] buildSafeBatch(final int seq, byte settings, ByteBatch batch, final int pos, int bufferSize) {
+        return buildSafeBatch(seq, settings, 5, batch, pos, bufferSize);
+    }
+
+    /**
+     * @param headerSize size of the header. Bytes after seq and up to headerSize are left for the caller to fill
+     * @return (byte[] batchRequest, int currentPosition)
+     */
+    public static Object[] buildSafeBatch(final int seq, byte settings, int headerSize, ByteBatch batch, final int pos, int bufferSize) {
         Array<byte[]> array = batch.array;
-        int retSize = 6;
-        int batchSize = array.size;
+        int retSize = headerSize + 1;
+        int batchSize = Math.min(array.size, pos + maxBatchSize);
         int endIIncluded = pos;
         for (int i = pos; i < batchSize; i++) {
             int length = array.get(i).length;
@@ -100,7 +173,7 @@ class PacketType {
             retSize += length + 2;
         }
 
-        if (retSize == 6){
+        if (retSize == headerSize + 1){
             throw new RuntimeException("Can't fit byte[] if length " + array.get(pos).length + " in bufferSize of length " + bufferSize + ". Make sure it's at least 8 bytes more than source byte[]");
         }
 
@@ -108,8 +181,8 @@ class PacketType {
         byte[] ret = new byte[retSize];
         ret[0] = settings;
         putInt(ret, seq, 1);
-        ret[5] = (byte) safeBatchSize;
-        int position = 6;
+        ret[headerSize] = (byte) safeBatchSize;
+        int position = headerSize + 1;
         for (int i = pos; i <= endIIncluded; i++) {
             byte[] src = array.get(i);
             int srcLen = src.length;
@@ -126,7 +199,7 @@ class PacketType {
     public static Object[] buildSafeBatchUnreliable(byte settings, ByteBatch batch, final int pos, int bufferSize) {
         Array<byte[]> array = batch.array;
         int retSize = 2;
-        int batchSize = array.size;
+        int batchSize = Math.min(array.size, pos + maxBatchSize);
         int endIIncluded = pos;
         for (int i = pos; i < batchSize; i++) {
             int length = array.get(i).length;
@@ -176,9 +249,17 @@ class PacketType {
      * Assumes that batch data is correct. Otherwise will throw Runtime exceptions
      */
     public static Object[] breakBatchDown(byte[] fullData, Serializer serializer){
-        int arrSize = fullData[5];
+        return breakBatchDown(fullData, 5, serializer);
+    }
+
+    /**
+     * Assumes that batch data is correct. Otherwise will throw Runtime exceptions
+     * @param headerSize position of the batch size byte
+     */
+    public static Object[] breakBatchDown(byte[] fullData, int headerSize, Serializer serializer){
+        int arrSize = fullData[headerSize];
         Object[] ret = new Object[arrSize];
-        int pos = 6;
+        int pos = headerSize + 1;
         for (int i = 0; i < arrSize; i++) {
             int packetSize = extractShort(fullData, pos);
             ret[i] = serializer.deserialize(fullData, pos + 2, packetSize);
@@ -208,12 +289,42 @@ class PacketType {
                 return "reliableReq";
             case reliableAck:
                 return "reliableAck";
+            case selectiveAck:
+                return "selectiveAck";
+            case reliableUnordered:
+                return "reliableUnordered";
+            case channelRequest:
+                return "channelRequest";
+            case channelAck:
+                return "channelAck";
+            case channelBatch:
+                return "channelBatch";
+            case expired:
+                return "expired";
+            case windowUpdate:
+                return "windowUpdate";
+            case unorderedAck:
+                return "unorderedAck";
             case unreliable:
                 return "unreliable";
             case batch:
                 return "batch";
             case batchUnreliable:
                 return "batchUnreliable";
+            case sequenced:
+                return "sequenced";
+            case batchSequenced:
+                return "batchSequenced";
+            case bigRequest:
+                return "bigRequest";
+            case streamStart:
+                return "streamStart";
+            case streamData:
+                return "streamData";
+            case streamCancel:
+                return "streamCancel";
+            case streamCredit:
+                return "streamCredit";
             case pingRequest:
                 return "pingRequest";
             case pingResponse:
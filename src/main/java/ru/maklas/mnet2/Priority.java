@@ -0,0 +1,25 @@
+package ru.maklas.mnet2;
+
+/**
+ * Priority of a message in the send queue of a socket. Queue is used when socket is limited by
+ * {@link ServerSocket#setBandwidthLimit(long)} or by {@link ru.maklas.mnet2.congestion.CongestionWindow}.
+ * Otherwise everything is sent right away and priority doesn't matter.
+ */
+public enum Priority {
+
+    /**
+     * Sent before everything else
+     */
+    HIGH,
+
+    /**
+     * Priority of messages sent without priority
+     */
+    NORMAL,
+
+    /**
+     * Sent last. Unreliable low priority messages that didn't fit in bandwidth of this update are dropped
+     */
+    LOW
+
+}
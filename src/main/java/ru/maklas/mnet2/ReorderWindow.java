@@ -0,0 +1,125 @@
+package ru.maklas.mnet2;
+
+/**
+ * Holds packets that were received ahead of the expected seq until the gap is filled.
+ * <p>Circular slot array indexed by {@code seq & mask} plus occupancy bitset. Insert and remove are O(1).
+ * Window starts small and grows up to maxSize. Packets further than maxSize ahead of the expected seq
+ * are rejected, so that unacknowledged data can't grow without limit.</p>
+ * Not thread safe.
+ */
+class ReorderWindow<E> {
+
+    private final int maxSize;
+    private Object[] slots;
+    private long[] occupied;
+    private int mask;
+    private int size;
+
+    /**
+     * @param maxSize Max distance from expected seq. Rounded up to power of two
+     */
+    public ReorderWindow(int maxSize) {
+        int max = 1;
+        while (max < maxSize) {
+            max <<= 1;
+        }
+        this.maxSize = max;
+        int capacity = Math.min(64, max);
+        slots = new Object[capacity];
+        occupied = new long[(capacity + 63) >> 6];
+        mask = capacity - 1;
+    }
+
+    /**
+     * @return true if packet with this seq can be stored while waiting for the expected seq
+     */
+    public boolean fits(int expectedSeq, int seq){
+        return seq - expectedSeq < maxSize;
+    }
+
+    /**
+     * @param expectedSeq seq that is expected next. Every stored seq must be bigger than it
+     * @return false if seq is not ahead of expectedSeq or too far ahead of it
+     */
+    public boolean insert(int expectedSeq, int seq, E value){
+        int offset = seq - expectedSeq;
+        if (offset < 0 || offset >= maxSize) return false;
+        if (offset >= slots.length) {
+            grow(expectedSeq, offset + 1);
+        }
+        int i = seq & mask;
+        if ((occupied[i >> 6] & (1L << i)) == 0) {
+            occupied[i >> 6] |= 1L << i;
+            size++;
+        }
+        slots[i] = value;
+        return true;
+    }
+
+    /**
+     * @return true if packet with this seq is already stored
+     */
+    public boolean contains(int expectedSeq, int seq){
+        int offset = seq - expectedSeq;
+        if (offset < 0 || offset >= slots.length) return false;
+        int i = seq & mask;
+        return (occupied[i >> 6] & (1L << i)) != 0;
+    }
+
+    /**
+     * Removes packet with the expected seq.
+     * @return value or null if it was not received yet
+     */
+    @SuppressWarnings("unchecked")
+    public E remove(int seq){
+        if (size == 0) return null;
+        int i = seq & mask;
+        long bit = 1L << i;
+        if ((occupied[i >> 6] & bit) == 0) return null;
+        occupied[i >> 6] &= ~bit;
+        E value = (E) slots[i];
+        slots[i] = null;
+        size--;
+        return value;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public void clear(){
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = null;
+        }
+        for (int i = 0; i < occupied.length; i++) {
+            occupied[i] = 0;
+        }
+        size = 0;
+    }
+
+    private void grow(int expectedSeq, int span){
+        int capacity = slots.length;
+        while (capacity < span) {
+            capacity <<= 1;
+        }
+        Object[] newSlots = new Object[capacity];
+        long[] newOccupied = new long[(capacity + 63) >> 6];
+        int newMask = capacity - 1;
+        for (int offset = 0; offset < slots.length; offset++) {
+            int seq = expectedSeq + offset;
+            int i = seq & mask;
+            if ((occupied[i >> 6] & (1L << i)) != 0) {
+                int j = seq & newMask;
+                newSlots[j] = slots[i];
+                newOccupied[j >> 6] |= 1L << j;
+            }
+        }
+        slots = newSlots;
+        occupied = newOccupied;
+        mask = newMask;
+    }
+}
@@ -0,0 +1,142 @@
+package ru.maklas.mnet2;
+
+import ru.maklas.mnet2.SocketImpl.ResendPacket;
+
+/**
+ * Reliable packets that were sent, but not acknowledged yet.
+ * <p>Power-of-two ring buffer indexed by {@code seq & mask}. Put, remove and get are O(1).
+ * Window spans from the oldest unacknowledged seq to the newest one and grows if it doesn't fit.
+ * Seqs are compared by their difference, so int overflow is fine.</p>
+ * Not thread safe.
+ */
+class ResendWindow {
+
+    private ResendPacket[] slots;
+    private int mask;
+    private int first; //Oldest seq that might be in window
+    private int end;   //Seq after the newest one in window
+    private int size;
+    private long oldestSendTime = Long.MAX_VALUE;
+
+    public ResendWindow() {
+        this(64);
+    }
+
+    /**
+     * @param initialCapacity rounded up to power of two
+     */
+    public ResendWindow(int initialCapacity) {
+        int capacity = 1;
+        while (capacity < initialCapacity) {
+            capacity <<= 1;
+        }
+        slots = new ResendPacket[capacity];
+        mask = capacity - 1;
+    }
+
+    public void put(int seq, ResendPacket packet){
+        if (size == 0) {
+            first = seq;
+            end = seq;
+        } else if (seq - first < 0) {
+            ensureCapacity(end - seq);
+            first = seq;
+        } else {
+            ensureCapacity(seq - first + 1);
+        }
+        int i = seq & mask;
+        if (slots[i] == null) {
+            size++;
+        }
+        slots[i] = packet;
+        if (packet.sendTime < oldestSendTime) {
+            oldestSendTime = packet.sendTime;
+        }
+        if (seq - end >= 0) {
+            end = seq + 1;
+        }
+    }
+
+    public ResendPacket get(int seq){
+        if (size == 0 || seq - first < 0 || seq - end >= 0) return null;
+        return slots[seq & mask];
+    }
+
+    /**
+     * @return removed packet or null if there was no packet with such seq
+     */
+    public ResendPacket remove(int seq){
+        if (size == 0 || seq - first < 0 || seq - end >= 0) return null;
+        int i = seq & mask;
+        ResendPacket packet = slots[i];
+        if (packet == null) return null;
+        slots[i] = null;
+        size--;
+        if (size == 0) {
+            first = end;
+            oldestSendTime = Long.MAX_VALUE;
+        } else if (seq == first) {
+            while (slots[first & mask] == null) {
+                first++;
+            }
+        }
+        return packet;
+    }
+
+    /**
+     * @return oldest seq in window. Valid only if window is not empty
+     */
+    public int first() {
+        return first;
+    }
+
+    /**
+     * @return seq after the newest seq in window. Iterate with {@code for (int seq = first(); seq != end(); seq++) get(seq)}
+     */
+    public int end() {
+        return end;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear(){
+        for (int seq = first; seq != end; seq++) {
+            slots[seq & mask] = null;
+        }
+        size = 0;
+        first = end;
+        oldestSendTime = Long.MAX_VALUE;
+    }
+
+    /**
+     * @return send time of the packet that was sent the longest ago or earlier. Long.MAX_VALUE if window is empty.
+     * Removing packets doesn't make it later, so it's only exact after {@link #setOldestSendTime(long)}
+     */
+    public long getOldestSendTime() {
+        return size == 0 ? Long.MAX_VALUE : oldestSendTime;
+    }
+
+    /**
+     * Set by the one who walked the whole window and knows the exact value
+     */
+    public void setOldestSendTime(long oldestSendTime) {
+        this.oldestSendTime = oldestSendTime;
+    }
+
+    private void ensureCapacity(int span){
+        if (span <= slots.length) return;
+        int capacity = slots.length;
+        while (capacity < span) {
+            capacity <<= 1;
+        }
+        ResendPacket[] newSlots = new ResendPacket[capacity];
+        int newMask = capacity - 1;
+        for (int seq = first; seq != end; seq++) {
+            newSlots[seq & newMask] = slots[seq & mask];
+        }
+        slots = newSlots;
+        mask = newMask;
+    }
+}
@@ -5,9 +5,13 @@ import com.badlogic.gdx.utils.AtomicQueue;
 import ru.maklas.mnet2.serialization.Serializer;
 
 import java.io.IOException;
-import java.net.DatagramPacket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Job of a server socket is to accept new connections and handle subsockets.
@@ -15,72 +19,222 @@ import java.net.SocketException;
 public class ServerSocket {
 
     final UDPSocket udp;
+    private final UDPSocket[] listeners;
+    private final AtomicInteger runningListeners = new AtomicInteger();
     private final ServerAuthenticator authenticator;
     final SocketMap socketMap;
     private AtomicQueue<ConnectionRequest> connectionRequests;
-    DatagramPacket sendPacket; //update thread
     int inactivityTimeout = 15000;
     int bufferSize = 512;
     int pingFrequency = 2500;
     int resendFrequency = 125;
+    //Сериализует ответы на подключение в update(). Потоки слушателей и ReceiveWorker берут свои из serializerSupplier
     Serializer serializer;
     Supplier<Serializer> serializerSupplier;
+    private final ReceiveWorker[] workers;
+    private final Array<SocketImpl> updateSockets = new Array<SocketImpl>(); //update thread
+    //Сокеты проверяются только когда у них срабатывает таймер или появилось что отправить
+    private final TimingWheel<SocketImpl> timers = new TimingWheel<SocketImpl>(1, System.currentTimeMillis()); //update thread
+    private final Array<TimingWheel.Timer<SocketImpl>> firedTimers = new Array<TimingWheel.Timer<SocketImpl>>(); //update thread
+    private final ConcurrentLinkedQueue<SocketImpl> wokenSockets = new ConcurrentLinkedQueue<SocketImpl>();
+    private final BandwidthScheduler bandwidthScheduler;
+
+    /**
+     * How many received datagrams can wait to be processed by each receive worker.
+     * If all of them are waiting, receive thread blocks until one is processed.
+     */
+    public static int workerQueueSize = 1024;
+
+    /**
+     * How many milliseconds of bandwidth limit can be saved up while sockets have nothing to send.
+     * Should be not less than update interval of the server. See {@link #setBandwidthLimit(long)}
+     */
+    public static int bandwidthBurst = 50;
 
     public ServerSocket(int port, ServerAuthenticator authenticator, Supplier<Serializer> serializerSupplier) throws SocketException {
         this(new JavaUDPSocket(port), 512, 15000, 2500, 125, authenticator, serializerSupplier);
     }
+
+    /**
+     * Binds 'listeners' sockets to the same port with SO_REUSEPORT. See {@link #ServerSocket(UDPSocket[], int, int, int, int, int, ServerAuthenticator, Supplier)}
+     * @throws SocketException if SO_REUSEPORT is not supported by this JVM or OS
+     */
+    public ServerSocket(int port, int listeners, ServerAuthenticator authenticator, Supplier<Serializer> serializerSupplier) throws SocketException {
+        this(reusePortSockets(port, listeners), 512, 15000, 2500, 125, 0, authenticator, serializerSupplier);
+    }
+
     public ServerSocket(UDPSocket udp, int bufferSize, int inactivityTimeout, int pingFrequency, int resendFrequency, ServerAuthenticator authenticator, Supplier<Serializer> serializerSupplier) {
-        this.udp = udp;
+        this(udp, bufferSize, inactivityTimeout, pingFrequency, resendFrequency, 0, authenticator, serializerSupplier);
+    }
+
+    /**
+     * @param receiveWorkers Number of threads that process received datagrams. If 0, receive thread processes
+     *                       every datagram itself. Otherwise receive thread only reads datagrams and hands them to workers.
+     *                       Datagrams are distributed by remote address, so every socket is always processed by the same worker
+     *                       and keeps it's order. Deserialization and acknowledgement of different sockets is then done in parallel.
+     */
+    public ServerSocket(UDPSocket udp, int bufferSize, int inactivityTimeout, int pingFrequency, int resendFrequency, int receiveWorkers, ServerAuthenticator authenticator, Supplier<Serializer> serializerSupplier) {
+        this(new UDPSocket[]{udp}, bufferSize, inactivityTimeout, pingFrequency, resendFrequency, receiveWorkers, authenticator, serializerSupplier);
+    }
+
+    /**
+     * @param listeners Sockets that receive datagrams. Usually bound to the same port with SO_REUSEPORT
+     *                  (see {@link JavaUDPSocket#reusePort(int)}), so that OS spreads incoming flows across them.
+     *                  Every listener has it's own receive thread. Sockets accepted by the server send through
+     *                  the listener that received their connection request.
+     * @param receiveWorkers see {@link #ServerSocket(UDPSocket, int, int, int, int, int, ServerAuthenticator, Supplier)}.
+     *                       Workers are shared by all listeners.
+     */
+    public ServerSocket(UDPSocket[] listeners, int bufferSize, int inactivityTimeout, int pingFrequency, int resendFrequency, int receiveWorkers, ServerAuthenticator authenticator, Supplier<Serializer> serializerSupplier) {
+        if (listeners.length == 0) throw new IllegalArgumentException("At least 1 listener is required");
+        this.udp = listeners[0];
+        this.listeners = listeners.clone();
         this.bufferSize = bufferSize;
         this.inactivityTimeout = inactivityTimeout;
         this.pingFrequency = pingFrequency;
         this.resendFrequency = resendFrequency;
         this.authenticator = authenticator;
         this.socketMap = new SocketMap();
+        this.bandwidthScheduler = new BandwidthScheduler(bufferSize);
         this.connectionRequests = new AtomicQueue<ConnectionRequest>(1000);
-        this.sendPacket = new DatagramPacket(new byte[0], 0);
         this.serializerSupplier = serializerSupplier;
         this.serializer = serializerSupplier.get();
-        new Thread(new Runnable() {
-            @Override
-            public void run() {
-                ServerSocket.this.run();
+        this.workers = new ReceiveWorker[Math.max(0, receiveWorkers)];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new ReceiveWorker(serializerSupplier.get());
+            new Thread(workers[i], "MNet receive worker " + i).start();
+        }
+        runningListeners.set(this.listeners.length);
+        for (final UDPSocket listener : this.listeners) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    if (workers.length == 0) {
+                        ServerSocket.this.run(listener);
+                    } else {
+                        ServerSocket.this.runWithWorkers(listener);
+                    }
+                }
+            }).start();
+        }
+    }
+
+    private static UDPSocket[] reusePortSockets(int port, int count) throws SocketException {
+        UDPSocket[] sockets = new UDPSocket[Math.max(1, count)];
+        for (int i = 0; i < sockets.length; i++) {
+            try {
+                sockets[i] = JavaUDPSocket.reusePort(port);
+            } catch (SocketException e) {
+                for (int j = 0; j < i; j++) {
+                    sockets[j].close();
+                }
+                throw e;
             }
-        }).start();
+        }
+        return sockets;
     }
 
-    void run(){
-        UDPSocket udp = this.udp;
+    void run(UDPSocket udp){
         byte[] buffer = new byte[bufferSize];
-        DatagramPacket packet = new DatagramPacket(buffer, bufferSize);
+        //Direct, чтобы ОС писала в него без промежуточной копии. Разбирается копия в buffer
+        ByteBuffer byteBuffer = ByteBuffer.allocateDirect(bufferSize);
+        InetSocketAddress address;
         int len;
-        SocketMap socketMap = this.socketMap;
+        //Kryo не потокобезопасен, поэтому у каждого слушателя свой
+        Serializer serializer = serializerSupplier.get();
 
         while (true){
+            byteBuffer.clear();
             try {
-                udp.receive(packet);
+                address = udp.receive(byteBuffer);
             } catch (IOException e) {
                 if (udp.isClosed()){
                     break;
                 }
                 continue;
             }
-            len = packet.getLength();
-            byte type = buffer[0];
-            if (len <= 5) continue;
-
-            SocketImpl mSocket = socketMap.get(packet);
-            if (mSocket != null){
-                mSocket.receiveData(buffer, type, len);
-            } else if (type == PacketType.connectionRequest){
-                Object req;
+            len = byteBuffer.position();
+            if (len < 5) continue;
+            byteBuffer.flip();
+            byteBuffer.get(buffer, 0, len);
+
+            process(udp, buffer, len, address, serializer);
+        }
+    }
+
+    /**
+     * Receive loop for multi-threaded mode. Only reads datagrams and passes them to workers.
+     */
+    private void runWithWorkers(UDPSocket udp){
+        ReceiveWorker[] workers = this.workers;
+        int bufferSize = this.bufferSize;
+        ArrayBlockingQueue<Datagram> freeDatagrams = new ArrayBlockingQueue<Datagram>(workerQueueSize * workers.length + 1);
+        for (int i = 0; i < workerQueueSize * workers.length; i++) {
+            freeDatagrams.add(new Datagram(bufferSize, freeDatagrams));
+        }
+
+        Datagram datagram = new Datagram(bufferSize, freeDatagrams);
+        datagram.udp = udp;
+        try {
+            while (true) {
+                datagram.byteBuffer.clear();
                 try {
-                    req = serializer.deserialize(buffer, 1, len - 1);
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    req = null;
+                    datagram.address = udp.receive(datagram.byteBuffer);
+                } catch (IOException e) {
+                    if (udp.isClosed()) {
+                        break;
+                    }
+                    continue;
+                }
+                datagram.length = datagram.byteBuffer.position();
+                if (datagram.length < 5) continue;
+                datagram.byteBuffer.flip();
+                datagram.byteBuffer.get(datagram.buffer, 0, datagram.length);
+
+                workers[shard(datagram.address, workers.length)].queue.put(datagram);
+                datagram = freeDatagrams.take();
+                datagram.udp = udp;
+            }
+        } catch (InterruptedException ignore) {}
+
+        if (runningListeners.decrementAndGet() == 0) {
+            for (ReceiveWorker worker : workers) {
+                worker.queue.offer(Datagram.STOP);
+            }
+        }
+    }
+
+    private static int shard(InetSocketAddress address, int shards){
+        int h = address.hashCode();
+        h ^= h >>> 16;
+        return (h & 0x7FFFFFFF) % shards;
+    }
+
+    /**
+     * Passes datagram to the socket it belongs to, or puts connection request in a queue.
+     * @param udp listener that received this datagram
+     * @param serializer serializer that belongs to the current thread. Used to deserialize connection requests
+     */
+    private void process(UDPSocket udp, byte[] buffer, int len, InetSocketAddress address, Serializer serializer){
+        byte type = buffer[0];
+        SocketImpl mSocket = socketMap.get(address);
+        if (mSocket != null){
+            mSocket.receiveData(buffer, type, len);
+        } else if (type == PacketType.connectionRequest){
+            Object req;
+            try {
+                req = serializer.deserialize(buffer, 1, len - 1);
+            } catch (Exception e) {
+                e.printStackTrace();
+                req = null;
+            }
+            ConnectionRequest request = new ConnectionRequest(udp, address.getAddress(), address.getPort(), req);
+            if (workers.length == 0 && listeners.length == 1){
+                connectionRequests.put(request);
+            } else {
+                synchronized (connectionRequests) { //AtomicQueue is single producer
+                    connectionRequests.put(request);
                 }
-                connectionRequests.put(new ConnectionRequest(packet.getAddress(), packet.getPort(), req));
             }
         }
     }
@@ -102,7 +256,7 @@ public class ServerSocket {
             }
 
             //Создаём полупустой сокет
-            SocketImpl socket = new SocketImpl(udp, poll.address, poll.port, bufferSize);
+            SocketImpl socket = new SocketImpl(poll.udp, poll.address, poll.port, bufferSize);
             //Авторизация
             Connection conn = new Connection(this, socket, poll.userRequest);
             authenticator.acceptConnection(conn);
@@ -115,18 +269,63 @@ public class ServerSocket {
     }
 
     /**
-     * Отключает сокеты которые давно не отвечали
+     * Проверяет сокеты, у которых сработал таймер или есть что отправить. Отключает сокеты которые давно не отвечали
      */
     private void updateDCAndSockets(){
         long now = System.currentTimeMillis();
-        synchronized (socketMap){
-            for (SocketMap.SocketWrap wrap : socketMap.sockets) {
-                SocketImpl socket = wrap.socket;
-                if (socket.isConnected()) {
-                    socket.checkResendPingAndInactivity(now);
-                }
+        SocketImpl woken;
+        while ((woken = wokenSockets.poll()) != null) {
+            woken.clearWoken();
+            checkSocket(woken, now);
+        }
+        timers.advance(now, firedTimers);
+        for (TimingWheel.Timer<SocketImpl> timer : firedTimers) {
+            SocketImpl socket = timer.owner;
+            if (timer.version == socket.timerVersion) {
+                socket.timerTick = -1;
+                checkSocket(socket, now);
             }
         }
+        timers.free(firedTimers);
+        firedTimers.clear();
+
+        long nanos = System.nanoTime();
+        if (bandwidthScheduler.needsUpdate(nanos)) {
+            Array<SocketImpl> sockets = socketMap.getSockets(updateSockets);
+            bandwidthScheduler.update(sockets, nanos, bandwidthBurst);
+            sockets.clear();
+        }
+    }
+
+    /**
+     * Resends, pings, checks inactivity of the socket and schedules next check when there will be something to do.
+     * New timer is scheduled only if socket has none, its timer fires in this update anyway or the new one is earlier,
+     * so a busy socket that is woken all the time doesn't leave a timer in the wheel on every update
+     */
+    private void checkSocket(SocketImpl socket, long now){
+        if (!socket.isConnected()) return;
+        socket.checkResendPingAndInactivity(now);
+        long next = socket.nextCheckTime(now);
+        long tick = timers.tick(next);
+        if (socket.timerTick == -1 || timers.isDue(socket.timerTick, now) || tick < socket.timerTick) {
+            socket.timerVersion++;
+            socket.timerTick = tick;
+            timers.schedule(socket, next, socket.timerVersion);
+        }
+    }
+
+    /**
+     * @return how many socket checks are scheduled, including ones that were replaced by earlier checks and will be ignored
+     */
+    int getScheduledChecks(){
+        return timers.size();
+    }
+
+    /**
+     * Socket will be checked on the next update. Can be called from any thread
+     */
+    void wake(SocketImpl socket){
+        wokenSockets.add(socket);
     }
 
     /**
@@ -146,22 +345,27 @@ public class ServerSocket {
         return udp.isClosed();
     }
 
+    /**
+     * @return First listener of this server
+     */
     public UDPSocket getUdp() {
         return udp;
     }
 
+    /**
+     * @return copy of all listeners of this server
+     */
+    public UDPSocket[] getListeners() {
+        return listeners.clone();
+    }
+
     public Array<Socket> getSockets(){
         return getSockets(new Array<Socket>());
     }
 
     public Array<Socket> getSockets(Array<Socket> sockets){
         if (sockets.size > 0) sockets.clear();
-        synchronized (socketMap){
-            for (SocketMap.SocketWrap socket : socketMap.sockets) {
-                sockets.add(socket.socket);
-            }
-        }
-        return sockets;
+        return socketMap.getSockets(sockets);
     }
 
     void removeMe(SocketImpl socket) {
@@ -173,15 +377,135 @@ public class ServerSocket {
         for (Socket socket : sockets) {
             socket.close(DCType.SERVER_SHUTDOWN);
         }
-        udp.close();
+        for (UDPSocket listener : listeners) {
+            listener.close();
+        }
+    }
+
+    /**
+     * Limits how many bytes per second all sockets of this server send together. Budget is shared between sockets
+     * with deficit round-robin according to their weights, so one socket with big backlog doesn't starve the others.
+     * Reliable and unreliable packets, big object parts and stream parts wait for their share and are sent on {@link #update()}
+     * in order of their {@link Priority}. Acks, pings, resends, unreliable batches and sequenced packets are sent right away,
+     * but count against the budget.
+     * @param bytesPerSecond 0 - no limit (default)
+     */
+    public void setBandwidthLimit(long bytesPerSecond){
+        bandwidthScheduler.setLimit(bytesPerSecond);
+    }
+
+    /**
+     * @return bytes per second for all sockets together. 0 if there is no limit
+     */
+    public long getBandwidthLimit(){
+        return bandwidthScheduler.getLimit();
+    }
+
+    /**
+     * Socket with weight 2 gets twice as much of the bandwidth limit as socket with weight 1, when both have data to send
+     * @param socket socket of this server
+     * @param weight at least 1. Default is 1
+     */
+    public void setBandwidthWeight(Socket socket, int weight){
+        ((SocketImpl) socket).bandwidth.weight = Math.max(1, weight);
+    }
+
+    public int getBandwidthWeight(Socket socket){
+        return ((SocketImpl) socket).bandwidth.weight;
+    }
+
+    /**
+     * @return bytes per second that socket sent, averaged over about a second. Updated on {@link #update()}
+     */
+    public double getSendRate(Socket socket){
+        return ((SocketImpl) socket).bandwidth.sendRate;
+    }
+
+    /**
+     * @return bytes per second that all sockets sent, averaged over about a second. Updated on {@link #update()}
+     */
+    public double getSendRate(){
+        return bandwidthScheduler.getTotalRate();
+    }
+
+    /**
+     * @return part of server's outgoing traffic that was sent by this socket lately. From 0 to 1
+     */
+    public double getBandwidthShare(Socket socket){
+        double total = bandwidthScheduler.getTotalRate();
+        return total <= 0 ? 0 : getSendRate(socket) / total;
+    }
+
+    /**
+     * @return total bytes sent by socket, including headers of MNet, resends and acks
+     */
+    public long getSentBytes(Socket socket){
+        return ((SocketImpl) socket).bandwidth.sentBytes.get();
+    }
+
+    /**
+     * @return number of worker threads that process received datagrams. 0 if datagrams are processed by receive thread.
+     */
+    public int getReceiveWorkers() {
+        return workers.length;
+    }
+
+    /**
+     * Datagram read by the receive thread. Returned to the free queue after worker processed it.
+     */
+    private static class Datagram {
+        static final Datagram STOP = new Datagram(0, null);
+
+        final byte[] buffer;
+        final ByteBuffer byteBuffer;
+        final ArrayBlockingQueue<Datagram> freeQueue;
+        UDPSocket udp;
+        InetSocketAddress address;
+        int length;
+
+        Datagram(int bufferSize, ArrayBlockingQueue<Datagram> freeQueue) {
+            this.buffer = new byte[bufferSize];
+            this.byteBuffer = ByteBuffer.allocateDirect(bufferSize);
+            this.freeQueue = freeQueue;
+        }
+    }
+
+    private class ReceiveWorker implements Runnable {
+
+        final ArrayBlockingQueue<Datagram> queue = new ArrayBlockingQueue<Datagram>(workerQueueSize + 1);
+        private final Serializer serializer;
+
+        ReceiveWorker(Serializer serializer) {
+            this.serializer = serializer;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Datagram datagram = queue.take();
+                    if (datagram == Datagram.STOP) {
+                        return;
+                    }
+                    try {
+                        process(datagram.udp, datagram.buffer, datagram.length, datagram.address, serializer);
+                    } catch (Throwable t) {
+                        t.printStackTrace();
+                    }
+                    datagram.freeQueue.offer(datagram);
+                }
+            } catch (InterruptedException ignore) {}
+        }
     }
 
     private class ConnectionRequest {
+        UDPSocket udp;
         InetAddress address;
         int port;
         Object userRequest;
 
-        public ConnectionRequest(InetAddress address, int port, Object userRequest) {
+        public ConnectionRequest(UDPSocket udp, InetAddress address, int port, Object userRequest) {
+            this.udp = udp;
             this.address = address;
             this.port = port;
             this.userRequest = userRequest;
@@ -1,10 +1,13 @@
 package ru.maklas.mnet2;
 
 import ru.maklas.mnet2.congestion.CongestionManager;
+import ru.maklas.mnet2.congestion.CongestionWindow;
 import ru.maklas.mnet2.serialization.Serializer;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.InetAddress;
+import java.nio.channels.ReadableByteChannel;
 
 public interface Socket {
 
@@ -35,6 +38,13 @@ public interface Socket {
      */
     void send(Object o);
 
+    /**
+     * Same as {@link #send(Object)}, but when socket is limited by bandwidth or congestion window,
+     * queued message is sent before messages of lower priority. Ordering is by sending on the wire,
+     * so message of higher priority can be delivered before messages of lower priority that were sent earlier.
+     */
+    void send(Object o, Priority priority);
+
 
     /**
      * <p>Sends data to connected socket if current state == CONNECTED</p>
@@ -42,10 +52,62 @@ public interface Socket {
      * Objects will be resent over and over until socket on the other end received it or disconnection occurs
      * </p>
      *
-     * @param o Object to be send. Max serialized size == (bufferSize - 9) * 2^16. Object can be changed after calling this method
+     * @param o Object to be send. Max serialized size == (bufferSize - 11) * 2^15. Object can be changed after calling this method
      */
     void sendBig(Object o);
 
+    /**
+     * <p>Sends data of any size from the stream reliably and in order with other Objects, without loading it in memory.
+     * The other end receives {@link IncomingStream} with the header and decides where to write the data.</p>
+     * <p>Data is read as the other end acknowledges previous parts, at most {@link SocketImpl#bigWindowSize} parts at a time.
+     * Reading is done in {@link #update(SocketProcessor)}. Source is not closed.</p>
+     *
+     * @param size size of the stream in bytes or -1 if it's unknown. Then stream is read until the end
+     * @param header any Object to describe the stream, for example file name. Can be null
+     * @param listener can be null
+     */
+    void sendStream(InputStream source, long size, Object header, StreamListener listener);
+
+    /**
+     * Same as {@link #sendStream(InputStream, long, Object, StreamListener)}. FileChannel can be used to send a file
+     */
+    void sendStream(ReadableByteChannel source, long size, Object header, StreamListener listener);
+
+    /**
+     * <p>Sends data to connected socket if current state == CONNECTED</p>
+     * <p>This method provides reliable, but unordered Object sending. Object will be resent until socket on the other end
+     * received it, and it's delivered as soon as it arrives, without waiting for Objects that were sent earlier.
+     * Duplicates are dropped. Good for chat messages, loot, achievements.</p>
+     *
+     * @param o Object to be send. Max serialized size == bufferSize - 5. Object can be changed after calling this method
+     */
+    void sendReliableUnordered(Object o);
+
+    /**
+     * <p>Same as {@link #send(Object)}, but Object is useless after ttl milliseconds.
+     * If it's not acknowledged by then, it's no longer resent and the other end is told to skip it,
+     * so Objects sent after it are not held waiting. Object is delivered either in order or not at all.</p>
+     *
+     * @param ttl milliseconds from now
+     */
+    void sendExpiring(Object o, int ttl);
+
+    /**
+     * <p>Same as {@link #send(Object)}, but Object is ordered only with Objects sent to the same channel.
+     * Every channel has its own sequence, so lost or delayed packet of one channel doesn't hold back the others.</p>
+     * Channel 0 is the default channel, used by {@link #send(Object)}, {@link #send(NetBatch)} and {@link #sendBig(Object)}.
+     *
+     * @param channel from 0 to 255
+     */
+    void send(Object o, int channel);
+
+    /**
+     * Same as {@link #send(NetBatch)} in a separate ordered channel. See {@link #send(Object, int)}
+     *
+     * @param channel from 0 to 255
+     */
+    void send(NetBatch batch, int channel);
+
     /**
      * <p>Sends Object to connected socket if current state == CONNECTED</p>
      * <p>This method sends data immediately to a socket on the other end and <b>does not provide reliability nor ordering</b>.
@@ -56,6 +118,26 @@ public interface Socket {
      */
     void sendUnreliable(Object o);
 
+    /**
+     * Same as {@link #sendUnreliable(Object)}. When server's bandwidth is limited, message waits for it in a queue
+     * and is sent before messages of lower priority. Low priority messages are dropped first, when there is no room.
+     */
+    void sendUnreliable(Object o, Priority priority);
+
+    /**
+     * <p>Sends Object to connected socket if current state == CONNECTED</p>
+     * <p>Same as {@link #sendUnreliable(Object)}, but Objects that arrive after a newer one was already received are dropped, as well as duplicates.
+     * Useful for state updates where only the latest value matters.</p>
+     *
+     * @param o Object to be send. Max serialized size == bufferSize - 5.
+     */
+    void sendSequenced(Object o);
+
+    /**
+     * Same as {@link #sendSequenced(Object)} for batch. Every packet of the batch is sequenced separately
+     */
+    void sendSequenced(NetBatch batch);
+
     /**
      * Sends already serialized data unreliably
      */
@@ -80,6 +162,21 @@ public interface Socket {
      */
     void sendUnreliable(NetBatch batch);
 
+    /**
+     * <p>When enabled, Objects sent with {@link #send(Object)} and {@link #sendSerialized(byte[])} are not sent right away,
+     * but are held until the next {@link #update(SocketProcessor)} (or {@link ServerSocket#update()} for server sockets) or {@link #flush()} and then packed into as few
+     * batch packets as possible. Order is preserved with other reliable sends. Disabled by default.</p>
+     * Disabling sends everything that was held.
+     */
+    void setCoalescing(boolean enabled);
+
+    boolean isCoalescing();
+
+    /**
+     * Sends reliable Objects that were held by coalescing right away
+     */
+    void flush();
+
 
     /**
      * <p>Receives data onto the {@link SocketProcessor}.
@@ -127,6 +224,33 @@ public interface Socket {
      */
     void setCongestionManager(CongestionManager cm);
 
+    /**
+     * @return number of received objects waiting for {@link #update(SocketProcessor)}
+     */
+    int getReceivingQueueSize();
+
+    /**
+     * @return max number of received objects that were waiting for update() at the same time
+     */
+    int getReceivingQueueHighWaterMark();
+
+    /**
+     * @return received objects dropped because receiving queue was full. See {@link SocketImpl#receivingQueueSize}
+     */
+    long getReceivingQueueDropped();
+
+    /**
+     * Currently working congestion window or null if amount of unacknowledged data is not limited
+     */
+    CongestionWindow getCongestionWindow();
+
+    /**
+     * Limits how many bytes of reliable packets can wait for ack and paces their sending.
+     * Reliable packets that don't fit are queued locally and sent as acks arrive. Unreliable and sequenced packets are not limited.
+     * @param cw null to send everything right away (default)
+     */
+    void setCongestionWindow(CongestionWindow cw);
+
     /**
      * All listeners are removed when socket is closed
      */
@@ -1,34 +1,114 @@
 package ru.maklas.mnet2;
 
 import com.badlogic.gdx.utils.Array;
-import com.badlogic.gdx.utils.AtomicQueue;
 import com.badlogic.gdx.utils.ObjectMap;
+import ru.maklas.mnet2.congestion.BackoffCongestionManager;
 import ru.maklas.mnet2.congestion.CongestionManager;
+import ru.maklas.mnet2.congestion.CongestionWindow;
 import ru.maklas.mnet2.congestion.DefaultCongestionManager;
+import ru.maklas.mnet2.congestion.Pacer;
 import ru.maklas.mnet2.serialization.Serializer;
 
 import java.io.IOException;
-import java.net.DatagramPacket;
+import java.io.InputStream;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.PortUnreachableException;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayDeque;
 import java.util.ConcurrentModificationException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import static ru.maklas.mnet2.PacketType.*;
 
 public class SocketImpl implements Socket{
 
     /**
-     * Size of receiving packet queue. If it overflows, data might be lost.
+     * Max number of received objects that wait for update(). 0 - unlimited, queue grows as needed.
+     * What happens when it's full is decided by {@link #receivingQueueOverflow}
      */
-    public static int receivingQueueSize = 5000;
+    public static int receivingQueueSize = 0;
+
+    /**
+     * What socket does when receiving queue is full and a reliable object arrives
+     */
+    public static OverflowPolicy receivingQueueOverflow = OverflowPolicy.DISCONNECT;
+
+    /**
+     * How far ahead of the expected seq reliable packets can be received. Packets further ahead are dropped without
+     * acknowledgement and will be resent later. Must be bigger than the number of parts in the biggest {@link #sendBig(Object)}.
+     */
+    public static int maxReorderWindow = 1 << 16;
+
+    /**
+     * Received reliable packets are acknowledged together in one selectiveAck.
+     * Pending acks wait up to this many ms for an outgoing packet to ride on. After that update() sends them separately.
+     */
+    public static int maxAckDelay = 10;
+
+    /**
+     * Pending acks are attached to outgoing reliable, batch and unreliable packets if they fit in bufferSize.
+     * Separate selectiveAck is sent only if acks waited {@link #maxAckDelay} ms and nothing took them.
+     */
+    public static boolean piggybackAcks = true;
+
+    /**
+     * How many parts of {@link #sendBig(Object)} can wait for ack at the same time. Next parts are sent as previous are acknowledged,
+     * so big transfers don't flood the connection and don't cause resend storms.
+     */
+    public static int bigWindowSize = 256;
+
+    /**
+     * How many bytes of a stream can be sent ahead of what the receiving application has written to the sink in update().
+     * Receiver gives more credit as it writes parts, so a slow consumer doesn't fill memory with received parts.
+     * Should be the same on both ends. 0 - unlimited
+     */
+    public static int streamWindow = 256 * 1024;
+
+    /**
+     * How many milliseconds of pacing rate can be saved up while nothing is sent, when {@link CongestionWindow} is set.
+     * Should be not less than update interval, because queued packets are sent on update() and when acks arrive.
+     */
+    public static int pacingBurst = 20;
+
+    /**
+     * How many unreliable packets can wait for server's bandwidth. When there are more, oldest of the lowest priority is dropped.
+     * See {@link ServerSocket#setBandwidthLimit(long)}
+     */
+    public static int maxQueuedUnreliable = 256;
+
+    /**
+     * How many objects of {@link #sendBig(Object)} can be assembled at the same time. Parts of other objects are not acknowledged
+     * until one of them is complete, so they are resent later. Every one takes up to 16 MB with bufferSize == 512
+     */
+    public static int maxBigAccumulators = 8;
+
+    /**
+     * How many received objects can wait for update() before the other end stops sending new reliable data.
+     * Free space is advertised in every ack, so a slow update() slows the sender down instead of overflowing the queue.
+     * Limited by {@link #receivingQueueSize} if it's set. 0 - don't advertise, the other end sends without limit
+     */
+    public static int receiveWindow = 4096;
+
+    /**
+     * How many bytes of acknowledged reliable packets and sent queued unreliable packets every socket keeps to reuse for next ones.
+     * Packets that were resent are never reused. 0 - every packet is a new byte[]
+     */
+    public static int pooledBufferBytes = 64 * 1024;
 
     //Main useful stuff
     private final UDPSocket udp;
     private volatile SocketState state;
     private boolean isClientSocket;
     private volatile int lastInsertedSeq = -1;
+    //seq для sequenced пакетов. Отдельный от надёжных, подтверждений не требует.
+    private final AtomicInteger sequencedSeq = new AtomicInteger();
+    private int lastSequencedSeq = -1;
     volatile long lastTimeReceivedMsg;
     private final AtomicInteger seq = new AtomicInteger();
     private Serializer serializer;
@@ -39,18 +119,80 @@ public class SocketImpl implements Socket{
         }
     };
     //Отправленные надёжные пакеты, требущие подтверждения или пересылаются.
-    private final SortedIntList<ResendPacket> requestList = new SortedIntList<ResendPacket>();
+    private final ResendWindow requestList = new ResendWindow();
+    //Пакеты, которые нужно переслать. Заполняется под локом requestList, отправляется без него.
+    private final Array<byte[]> resendQueue = new Array<byte[]>();
     //Очередь с принятными отсортированными сообщениями.
     //byte[] - Пакет, String - Сообщение дисконнекта, Float - пинг.
-    final AtomicQueue<Object> queue = new AtomicQueue<Object>(receivingQueueSize);
+    final ChunkedQueue<Object> queue = new ChunkedQueue<Object>(receivingQueueSize);
     //Очередь в которой полученные пакеты сортируются, если они были получены в неправильной последовательности
     //byte[] - пакет или пинг если длинна == 0, byte[][] - batch пакет
-    private final SortedIntList<Object> receivingSortQueue = new SortedIntList<Object>();
+    private final ReorderWindow<Object> receivingSortQueue = new ReorderWindow<Object>(maxReorderWindow);
     //Аккумулирует bigRequest пока они не соберутся полностью.
     private final ObjectMap<Integer, BigStorage> bigAccumulator = new ObjectMap<Integer, BigStorage>();
     //Осуществляет контроль над частотой ресендов
     private volatile CongestionManager cm = new DefaultCongestionManager();
+    //Ограничивает объём неподтверждённых данных. null - без ограничений
+    private volatile CongestionWindow cw;
+    private final Pacer pacer = new Pacer(pacingBurst);
+    //Байты всех пакетов, ждущих подтверждения
+    private final AtomicInteger bytesInFlight = new AtomicInteger();
+    //Пакеты, не поместившиеся в окно или бюджет сервера, по приоритетам. Seq надёжным назначается при отправке
+    private final ArrayDeque<PendingSend>[] pendingReliable = newQueues();
+    private final ArrayDeque<byte[]>[] pendingUnreliable = newQueues();
+    private int pendingUnreliableCount;
+    private final Object pendingLock = new Object();
+    private volatile boolean hasPendingSends = false;
+    //Ближайший срок пакетов в requestList или раньше. Изменяется под локом requestList
+    private volatile long nextDeadline = Long.MAX_VALUE;
+    //Сокет сервера уже в очереди на проверку
+    private final AtomicBoolean woken = new AtomicBoolean();
+    //Очередь получения переполнилась и отключение уже в ней. Используется потоком получения
+    private volatile boolean overflowed = false;
+    //Версия и тик последнего таймера в колесе сервера. -1 - таймер сработал или его нет. Используются только потоком сервера
+    int timerVersion;
+    long timerTick = -1;
+    //Свободное место в очереди получения другой стороны из последнего подтверждения.
+    //До первого подтверждения считаем, что у другой стороны такие же настройки
+    private volatile int remoteWindow = receiveWindow > 0 ? Math.min(receiveWindow, unlimitedWindow - 1) : Integer.MAX_VALUE;
+    //Объекты в надёжных пакетах всех каналов, ждущих подтверждения. Другая сторона ещё не учла их в своём окне.
+    //Считаются объекты, а не пакеты: окно - это место в очереди, а batch кладёт в неё до maxBatchSize объектов
+    private final AtomicInteger objectsInFlight = new AtomicInteger();
+    private volatile long lastWindowProbe;
+    //Пробы подряд, пока окно закрыто. Каждая следующая ждёт вдвое дольше
+    private volatile int windowProbes;
+    //Последнее окно, отправленное в подтверждении. Изменяется под локом ackBuffer
+    private volatile int lastAdvertisedWindow = unlimitedWindow;
+    //Доля бюджета сервера и статистика отправки
+    final BandwidthShare bandwidth = new BandwidthShare();
     private int bigSeqCounter = 1;
+    //Большие объекты, части которых ещё не отправлены. Синхронизируется на себе.
+    private final Array<BigTransfer> bigTransfers = new Array<BigTransfer>();
+    private volatile boolean hasBigTransfers = false;
+    //Отправленные части больших объектов и потоков, которые ещё не подтверждены
+    private final AtomicInteger bigInFlight = new AtomicInteger();
+    //Отправляемые потоки. Массив заменяется целиком, чтобы поток подтверждений читал его без лока
+    private volatile OutgoingStream[] outgoingStreams = new OutgoingStream[0];
+    private final Object streamLock = new Object();
+    //Следующий id потока. Защищён streamLock. Package-private для тестов
+    int streamIdCounter = 1;
+    //id потока - short со знаком, старший бит не используется
+    private static final int maxStreamId = 0x7FFF;
+    //Принимаемые потоки. Используется только в processData
+    private final ObjectMap<Integer, IncomingStream> incomingStreams = new ObjectMap<Integer, IncomingStream>();
+    //Подтверждения, которые ещё не отправлены. Защищены локом ackBuffer.
+    private final AckField acks = new AckField();
+    //Когда появилось самое старое неотправленное подтверждение (основное или канала). 0 - ничего не ждёт
+    private long pendingAckSince;
+    //Дополнительные упорядоченные каналы 1..255. Создаются при первом использовании.
+    private final AtomicReferenceArray<Channel> channels = new AtomicReferenceArray<Channel>(256);
+    private volatile Channel[] activeChannels = new Channel[0];
+    //seq, пересылка и подтверждения sendReliableUnordered(). Окно упорядочивания только отсеивает дубликаты, объекты в нём не ждут
+    private final Channel unordered = new Channel(0, maxReorderWindow);
+    //Надёжные пакеты, отложенные до update() в режиме coalescing. Отправляются одним батчем.
+    private final ByteBatch coalesced = new ByteBatch();
+    private int coalescedSize = 6;
+    private volatile boolean coalescing = false;
 
     //Params
     volatile long resendCD = 125;
@@ -59,18 +201,25 @@ public class SocketImpl implements Socket{
     int bufferSize = 512;
     final InetAddress address;
     final int port;
+    final InetSocketAddress remoteAddress;
 
 
-    //datagrams
-    private DatagramPacket sendPacket;
-    private DatagramPacket ackPacket;
-    private DatagramPacket receivePacket;
-    private DatagramPacket pingResponsePacket;
-    private DatagramPacket serverConnectionResponse; //Ответ сервера на connectionRequest.
+    //datagrams. Direct буферы, чтобы ОС читала и писала их без промежуточной копии. Пакет собирается в byte[] и копируется в свой буфер
+    private ByteBuffer sendByteBuffer;
+    private ByteBuffer ackByteBuffer;
+    private ByteBuffer receiveByteBuffer;
+    private ByteBuffer pingResponseByteBuffer;
+    //Для sendData(). Синхронизируется на себе
+    private ByteBuffer dataByteBuffer;
+    private byte[] serverConnectionResponse; //Ответ сервера на connectionRequest.
     private byte[] sendBuffer;
     private byte[] receiveBuffer;
     private byte[] ackBuffer;
     private byte[] pingResponseBuffer;
+    //Надёжные пакеты сериализуются сюда и копируются в буфер из пула. Синхронизируется на себе
+    private byte[] serializeBuffer;
+    //Буферы подтверждённых пакетов для повторного использования
+    BufferPool bufferPool;
 
     //processing
     private boolean processing = false; //true if processing right now
@@ -98,13 +247,14 @@ public class SocketImpl implements Socket{
         this.udp = udp;
         this.address = address;
         this.port = port;
+        this.remoteAddress = new InetSocketAddress(address, port);
         this.isClientSocket = true;
         this.bufferSize = bufferSize;
         this.pingCD = pingFrequency;
         this.resendCD = resendFrequency;
         this.inactivityTimeout = inactivityTimeout;
         this.serverConnectionResponse = null;
-        initPackets(bufferSize, address, port);
+        initPackets(bufferSize);
     }
 
     /**
@@ -115,6 +265,7 @@ public class SocketImpl implements Socket{
         this.udp = udp;
         this.address = address;
         this.port = port;
+        this.remoteAddress = new InetSocketAddress(address, port);
         this.isClientSocket = false;
         this.bufferSize = bufferSize;
     }
@@ -131,33 +282,52 @@ public class SocketImpl implements Socket{
         this.pingCD = pingFrequency;
         this.resendCD = resendFrequency;
         this.inactivityTimeout = inactivityTimeout;
+        this.bandwidth.limited = serverSocket.getBandwidthLimit() > 0;
 
-        this.serverConnectionResponse = new DatagramPacket(fullResponseData, fullResponseData.length);
-        this.serverConnectionResponse.setAddress(address);
-        this.serverConnectionResponse.setPort(port);
-        initPackets(bufferSize, address, port);
+        this.serverConnectionResponse = fullResponseData;
+        initPackets(bufferSize);
+        wake();
     }
 
-    private void initPackets(int bufferSize, InetAddress address, int port){
+    private void initPackets(int bufferSize){
         this.sendBuffer = new byte[bufferSize];
         this.ackBuffer = new byte[bufferSize];
         this.receiveBuffer = new byte[bufferSize];
         this.pingResponseBuffer = new byte[13];
         this.pingResponseBuffer[0] = pingResponse;
+        this.serializeBuffer = new byte[bufferSize];
+        this.bufferPool = new BufferPool(bufferSize, pooledBufferBytes);
+
+        this.sendByteBuffer = ByteBuffer.allocateDirect(bufferSize);
+        this.ackByteBuffer = ByteBuffer.allocateDirect(bufferSize);
+        this.receiveByteBuffer = ByteBuffer.allocateDirect(bufferSize);
+        this.pingResponseByteBuffer = ByteBuffer.allocateDirect(pingResponseBuffer.length);
+        this.dataByteBuffer = ByteBuffer.allocateDirect(bufferSize);
+    }
 
-        this.sendPacket = new DatagramPacket(sendBuffer, sendBuffer.length);
-        this.sendPacket.setAddress(address);
-        this.sendPacket.setPort(port);
-
-        this.ackPacket = new DatagramPacket(ackBuffer, ackBuffer.length);
-        this.ackPacket.setAddress(address);
-        this.ackPacket.setPort(port);
-
-        this.receivePacket = new DatagramPacket(receiveBuffer, receiveBuffer.length);
+    /**
+     * Copies first 'length' bytes of data into the buffer and sends them to the remote address
+     */
+    private void send(byte[] data, ByteBuffer buffer, int length) throws IOException {
+        buffer.clear();
+        buffer.put(data, 0, length);
+        buffer.flip();
+        bandwidth.sentBytes.addAndGet(length);
+        udp.send(buffer, remoteAddress);
+    }
 
-        this.pingResponsePacket = new DatagramPacket(pingResponseBuffer, pingResponseBuffer.length);
-        this.pingResponsePacket.setAddress(address);
-        this.pingResponsePacket.setPort(port);
+    /**
+     * Receives next datagram and copies it into receiveBuffer
+     * @return length of the datagram
+     */
+    private int receive() throws IOException {
+        ByteBuffer receiveByteBuffer = this.receiveByteBuffer;
+        receiveByteBuffer.clear();
+        udp.receive(receiveByteBuffer);
+        int length = receiveByteBuffer.position();
+        receiveByteBuffer.flip();
+        receiveByteBuffer.get(receiveBuffer, 0, length);
+        return length;
     }
 
     @Override
@@ -189,8 +359,6 @@ public class SocketImpl implements Socket{
 
         udp.setReceiveTimeout(timeout);
         udp.connect(address, port);
-        sendPacket.setAddress(address);
-        sendPacket.setPort(port);
         int attempts;
         int wait;
         if (timeout < 600) {
@@ -208,14 +376,16 @@ public class SocketImpl implements Socket{
         //Make request
         sendBuffer[0] = PacketType.connectionRequest;
         System.arraycopy(data, 0, sendBuffer, 1, data.length);
+        int requestLength = data.length + 1;
+        int len = 0;
         long startTime = System.currentTimeMillis();
 
         //send until all attempts are over or we get response.
         udp.setReceiveTimeout(wait);
         while (attempts > 0) {
             try {
-                udp.send(sendPacket);
-                udp.receive(receivePacket);
+                send(sendBuffer, sendByteBuffer, requestLength);
+                len = receive();
             } catch (IOException e) {
                 if (udp.isClosed()) {
                     state = SocketState.CLOSED;
@@ -246,7 +416,6 @@ public class SocketImpl implements Socket{
             return new ServerResponse(ResponseType.NO_RESPONSE);
         }
 
-        int len = receivePacket.getLength();
         Object responseData;
         if (len == 5){
             responseData = null;
@@ -272,65 +441,392 @@ public class SocketImpl implements Socket{
     //***********//
 
     public void sendUnreliable(Object o){
-        if (isConnected()) {
+        if (isConnected() && bandwidth.limited) {
+            sendUnreliable(o, Priority.NORMAL);
+        } else if (isConnected()) {
             sendBuffer[0] = unreliable;
             int size = serializer.serialize(o, sendBuffer, 1);
-            sendPacket.setLength(size + 1);
             try {
-                udp.send(sendPacket);
+                sendWithAcks(sendBuffer, sendByteBuffer, size + 1);
             } catch (IOException e) {
                 e.printStackTrace();
             }
         }
     }
 
+    @Override
+    public void sendUnreliable(Object o, Priority priority){
+        if (isConnected() && bandwidth.limited) {
+            byte[] fullPackage = serializePooled(o, unreliable, 1);
+            queueUnreliable(fullPackage, priority);
+        } else if (isConnected()) {
+            sendUnreliable(o);
+        }
+    }
+
     public void send(Object o){
+        if (isConnected() && coalescing) {
+            coalesce(serializer.serialize(o));
+        } else if (isConnected()) {
+            byte[] fullPackage = serializePooled(o, reliableRequest, 5);
+            sendReliable(null, fullPackage, Priority.NORMAL);
+        }
+    }
+
+    @Override
+    public void sendExpiring(Object o, int ttl){
         if (isConnected()) {
-            byte[] fullPackage = serializer.serialize(o, 5);
-            int seq = this.seq.getAndIncrement();
-            fullPackage[0] = reliableRequest;
-            PacketType.putInt(fullPackage, seq, 1);
-            saveRequest(seq, fullPackage);
-            sendData(fullPackage);
+            flush();
+            byte[] fullPackage = serializePooled(o, reliableRequest, 5);
+            sendReliable(null, fullPackage, Priority.NORMAL, System.currentTimeMillis() + ttl);
+        }
+    }
+
+    @Override
+    public void send(Object o, Priority priority){
+        if (priority == Priority.NORMAL) {
+            send(o);
+        } else if (isConnected()) {
+            byte[] fullPackage = serializePooled(o, reliableRequest, 5);
+            sendReliable(null, fullPackage, priority);
+        }
+    }
+
+    @Override
+    public void send(Object o, int channel){
+        checkChannel(channel);
+        if (channel == 0) {
+            send(o);
+        } else if (isConnected()) {
+            Channel ch = channel(channel);
+            byte[] fullPackage = serializePooled(o, channelRequest, 6);
+            fullPackage[5] = (byte) channel;
+            sendReliable(ch, fullPackage, Priority.NORMAL);
+        }
+    }
+
+    @Override
+    public void send(NetBatch batch, int channel){
+        checkChannel(channel);
+        if (channel == 0) {
+            send(batch);
+        } else if (isConnected()) {
+            int size = batch.size();
+            if (size == 0) return;
+            Channel ch = channel(channel);
+            ByteBatch bb = batch.convertAndGet(serializer);
+            int i = 0;
+            while (i < size) {
+                Object[] tuple = buildSafeBatch(0, channelBatch, 6, bb, i, bufferSize);
+                byte[] fullPackage = (byte[]) tuple[0];
+                fullPackage[5] = (byte) channel;
+                i = ((Integer) tuple[1]);
+                sendReliable(ch, fullPackage, Priority.NORMAL);
+            }
+        }
+    }
+
+    @Override
+    public void sendReliableUnordered(Object o){
+        if (isConnected()) {
+            byte[] fullPackage = serializePooled(o, reliableUnordered, 5);
+            sendReliable(unordered, fullPackage, Priority.NORMAL);
+        }
+    }
+
+    /**
+     * Serializes object into a pooled buffer of exactly the packet's length
+     * @param offset header size. Header is left for the caller to fill, except for type
+     */
+    private byte[] serializePooled(Object o, byte type, int offset){
+        byte[] fullPackage;
+        synchronized (serializeBuffer) {
+            int size = serializer.serialize(o, serializeBuffer, offset);
+            fullPackage = bufferPool.copy(serializeBuffer, offset + size);
         }
+        fullPackage[0] = type;
+        return fullPackage;
+    }
+
+    /**
+     * Same as {@link PacketType#build5byte(byte, int, byte[])}, but packet is taken from the pool. Seq is left for sendReliable
+     */
+    private byte[] build5bytePooled(byte type, byte[] data){
+        byte[] fullPackage = bufferPool.obtain(data.length + 5);
+        fullPackage[0] = type;
+        System.arraycopy(data, 0, fullPackage, 5, data.length);
+        return fullPackage;
     }
 
     public void sendBig(Object o){
+        flush();
         byte[] big = serializer.serialize(o);
         int id = bigSeqCounter++;
         if (big.length < bufferSize - 5){
             sendSerialized(big);
         } else {
             if (isConnected()){
-                int maxPerPacket = bufferSize - 9; //503
+                int maxPerPacket = bufferSize - bigHeaderSize; //501
 
                 int packs = big.length / maxPerPacket;
                 if (big.length % (maxPerPacket) > 0){
                     packs++;
                 }
+                if (packs > maxBigParts){
+                    throw new RuntimeException("Object of " + big.length + " bytes needs " + packs + " parts, max is " + maxBigParts + ". Use sendStream()");
+                }
+
+                //Части должны идти подряд, поэтому seq резервируются все сразу, а отправляются окном.
+                //Если надёжные пакеты ждут в очереди, объект встаёт за ними, чтобы не обогнать их seq
+                BigTransfer transfer = new BigTransfer(big, id, packs, maxPerPacket);
+                synchronized (pendingLock) {
+                    if (hasPendingSends) {
+                        pendingReliable[Priority.NORMAL.ordinal()].addLast(new PendingSend(transfer));
+                    } else {
+                        startBigTransfer(transfer);
+                    }
+                }
+                wake();
+                sendPending();
+                sendBigParts();
+            }
+        }
+    }
+
+    @Override
+    public void sendStream(ReadableByteChannel source, long size, Object header, StreamListener listener){
+        sendStream(Channels.newInputStream(source), size, header, listener);
+    }
+
+    @Override
+    public void sendStream(InputStream source, long size, Object header, StreamListener listener){
+        if (!isConnected()) return;
+        flush();
+        byte[] serializedHeader = header == null ? new byte[0] : serializer.serialize(header);
+        OutgoingStream stream;
+        synchronized (streamLock) {
+            stream = new OutgoingStream(nextStreamId(), source, size, listener, streamWindow > 0 ? streamWindow : Long.MAX_VALUE);
+            //Добавляется сразу, чтобы id был занят, но части отправляются только после startStream
+            OutgoingStream[] streams = new OutgoingStream[outgoingStreams.length + 1];
+            System.arraycopy(outgoingStreams, 0, streams, 0, outgoingStreams.length);
+            streams[outgoingStreams.length] = stream;
+            outgoingStreams = streams;
+        }
+        byte[] fullPackage = new byte[15 + serializedHeader.length];
+        fullPackage[0] = PacketType.streamStart;
+        PacketType.putShort(fullPackage, stream.id, 5);
+        PacketType.putLong(fullPackage, size, 7);
+        System.arraycopy(serializedHeader, 0, fullPackage, 15, serializedHeader.length);
+
+        //streamStart - обычный надёжный пакет. Если надёжные пакеты ждут окна, поток встаёт за ними, чтобы не обогнать их seq.
+        //Части начинают отправляться только после streamStart
+        synchronized (pendingLock) {
+            if (!hasPendingSends && congestionAllows(fullPackage.length, 1)) {
+                startStream(stream, fullPackage);
+            } else {
+                pendingReliable[Priority.NORMAL.ordinal()].addLast(new PendingSend(stream, fullPackage));
+                hasPendingSends = true;
+            }
+        }
+        wake();
+        sendPending();
+        sendStreamParts();
+    }
+
+    /**
+     * Sends streamStart and lets {@link #sendStreamParts()} send parts of the stream
+     */
+    private void startStream(OutgoingStream stream, byte[] streamStart){
+        sendReliableNow(null, streamStart, 0);
+        stream.started = true;
+    }
+
+    /**
+     * Skips ids of streams that are still sending or waiting to start. Peer's IncomingStream with the same id is always
+     * finished by then: stream packets are processed in seq order, so it gets the last part before the new streamStart.
+     * Called under streamLock
+     * @throws IllegalStateException if all ids are in use
+     */
+    private int nextStreamId(){
+        for (int i = 0; i <= maxStreamId; i++) {
+            int id = streamIdCounter++ & maxStreamId;
+            if (findStream(id) == null) return id;
+        }
+        throw new IllegalStateException("All " + (maxStreamId + 1) + " stream ids are in use");
+    }
+
+    /**
+     * Reads and sends next parts of outgoing streams while there is room in the window and credit from the receiver. Notifies listeners.
+     * Streams get a part in turn. When credit is used up and nothing of the stream is in flight, one part goes through
+     * as a probe after resendCD, doubled for every probe in a row, so a lost streamCredit doesn't stall the stream
+     */
+    private void sendStreamParts(){
+        OutgoingStream[] streams = this.outgoingStreams;
+        if (streams.length == 0) return;
+        int partSize = bufferSize - streamHeaderSize;
+        boolean sending = true;
+        while (sending && bigInFlight.get() < bigWindowSize && isConnected()) {
+            sending = false;
+            for (OutgoingStream stream : streams) {
+                if (!stream.started || stream.allSent || stream.cancelled || bigInFlight.get() >= bigWindowSize) continue;
+                boolean probe = stream.sent >= stream.credit;
+                if (probe && (stream.inFlight.get() > 0 || System.currentTimeMillis() - stream.lastProbe < resendCD << Math.min(stream.probes, 5))) continue;
+                //Часть читается до проверки окна, чтобы учесть её настоящий размер. Если окна не хватило, она ждёт в stream.next
+                if (stream.next == null) {
+                    stream.next = readPart(stream, partSize);
+                }
+                byte[] part = stream.next;
+                if (!congestionAllows(part.length, 1)) break;
+                stream.next = null;
+                if (probe) {
+                    stream.lastProbe = System.currentTimeMillis();
+                    stream.probes++;
+                    part[7] |= streamProbe;
+                } else {
+                    stream.probes = 0;
+                }
+                stream.sent += part.length - streamHeaderSize;
+                stream.allSent = (part[7] & (streamLast | streamAborted)) != 0;
+                int seq = this.seq.getAndIncrement();
+                PacketType.putInt(part, seq, 1);
+
+                stream.inFlight.incrementAndGet();
+                bigInFlight.incrementAndGet();
+                saveRequest(seq, part);
+                sendData(part);
+                sending |= !stream.allSent;
+            }
+        }
+
+        for (OutgoingStream stream : streams) {
+            long acknowledged = stream.acknowledged.get();
+            if (stream.listener != null && acknowledged != stream.reportedProgress) {
+                stream.reportedProgress = acknowledged;
+                stream.listener.progress(this, acknowledged, stream.size);
+            }
+            if (stream.cancelled || (stream.allSent && stream.inFlight.get() == 0)) {
+                removeStream(stream);
+                if (stream.next != null) {
+                    bufferPool.free(stream.next);
+                    stream.next = null;
+                }
+                if (stream.listener != null) {
+                    stream.listener.finished(this, !stream.cancelled && !stream.failed);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads next part of the stream from its source
+     * @return streamData packet without seq
+     */
+    private byte[] readPart(OutgoingStream stream, int partSize){
+        byte[] part = bufferPool.obtain(streamHeaderSize + partSize);
+        int toRead = stream.size < 0 ? partSize : (int) Math.min(partSize, stream.size - stream.sent);
+        byte flags = 0;
+        int read;
+        try {
+            read = readFully(stream.source, part, streamHeaderSize, toRead);
+        } catch (IOException e) {
+            e.printStackTrace();
+            read = 0;
+            flags = streamAborted;
+            stream.failed = true;
+        }
+        if (flags == 0 && (read < toRead || stream.sent + read == stream.size)) {
+            flags = streamLast;
+        }
+        if (read < partSize) {
+            byte[] trimmed = bufferPool.copy(part, streamHeaderSize + read);
+            bufferPool.free(part);
+            part = trimmed;
+        }
+        part[0] = PacketType.streamData;
+        PacketType.putShort(part, stream.id, 5);
+        part[7] = flags;
+        return part;
+    }
+
+    private static int readFully(InputStream in, byte[] buffer, int offset, int length) throws IOException {
+        int total = 0;
+        while (total < length) {
+            int read = in.read(buffer, offset + total, length - total);
+            if (read < 0) break;
+            total += read;
+        }
+        return total;
+    }
+
+    private void removeStream(OutgoingStream stream){
+        synchronized (streamLock) {
+            OutgoingStream[] old = outgoingStreams;
+            int index = -1;
+            for (int i = 0; i < old.length; i++) {
+                if (old[i] == stream) index = i;
+            }
+            if (index == -1) return;
+            OutgoingStream[] streams = new OutgoingStream[old.length - 1];
+            System.arraycopy(old, 0, streams, 0, index);
+            System.arraycopy(old, index + 1, streams, index, streams.length - index);
+            outgoingStreams = streams;
+        }
+    }
+
+    private OutgoingStream findStream(int id){
+        for (OutgoingStream stream : outgoingStreams) {
+            if (stream.id == id) return stream;
+        }
+        return null;
+    }
 
-                int offset = 0;
-                for (int i = 0; i < packs; i++) {
-                    int currentSize = Math.min(maxPerPacket, big.length - offset);
-                    byte[] singlePacket = new byte[currentSize + 9];
-                    singlePacket[0] = PacketType.bigRequest;
-                    int seq = this.seq.getAndIncrement();
-                    PacketType.putInt(singlePacket, seq, 1);
-                    PacketType.putShort(singlePacket, id, 5);
-                    PacketType.putShort(singlePacket, packs, 7);
-                    System.arraycopy(big, offset, singlePacket, 9, currentSize);
+    /**
+     * Reserves seq for all parts of the object. Parts are sent by {@link #sendBigParts()}
+     */
+    private void startBigTransfer(BigTransfer transfer){
+        synchronized (bigTransfers) {
+            transfer.firstSeq = this.seq.getAndAdd(transfer.packs);
+            bigTransfers.add(transfer);
+            hasBigTransfers = true;
+        }
+    }
 
-                    saveRequest(seq, singlePacket);
-                    sendData(singlePacket);
-                    offset += currentSize;
+    /**
+     * Sends next parts of big objects while there are less than bigWindowSize unacknowledged parts
+     */
+    private void sendBigParts(){
+        if (!hasBigTransfers) return;
+        synchronized (bigTransfers) {
+            while (bigTransfers.size > 0 && bigInFlight.get() < bigWindowSize && isConnected()) {
+                BigTransfer transfer = bigTransfers.first();
+                int offset = transfer.sent * transfer.maxPerPacket;
+                int currentSize = Math.min(transfer.maxPerPacket, transfer.data.length - offset);
+                if (!congestionAllows(currentSize + bigHeaderSize, 1)) break;
+                int i = transfer.sent++;
+                byte[] singlePacket = bufferPool.obtain(currentSize + bigHeaderSize);
+                singlePacket[0] = PacketType.bigRequest;
+                int seq = transfer.firstSeq + i;
+                PacketType.putInt(singlePacket, seq, 1);
+                PacketType.putShort(singlePacket, transfer.id, 5);
+                PacketType.putShort(singlePacket, transfer.packs, 7);
+                PacketType.putShort(singlePacket, i, 9);
+                System.arraycopy(transfer.data, offset, singlePacket, bigHeaderSize, currentSize);
+
+                bigInFlight.incrementAndGet();
+                saveRequest(seq, singlePacket);
+                sendData(singlePacket);
+                if (transfer.sent == transfer.packs) {
+                    bigTransfers.removeIndex(0);
                 }
             }
+            hasBigTransfers = bigTransfers.size > 0;
         }
     }
 
     @Override
     public void send(NetBatch batch){
         if (isConnected()) {
+            flush();
             int size = batch.size();
             switch (size) {
                 case 0:
@@ -345,12 +841,10 @@ public class SocketImpl implements Socket{
             ByteBatch bb = batch.convertAndGet(serializer);
             int i = 0;
             while (i < size) {
-                int seq = this.seq.getAndIncrement();
-                Object[] tuple = buildSafeBatch(seq, PacketType.batch, bb, i, bufferSize);
+                Object[] tuple = buildSafeBatch(0, PacketType.batch, bb, i, bufferSize);
                 byte[] fullPackage = (byte[]) tuple[0];
                 i = ((Integer) tuple[1]);
-                saveRequest(seq, fullPackage);
-                sendData(fullPackage);
+                sendReliable(null, fullPackage, Priority.NORMAL);
             }
         }
     }
@@ -375,19 +869,102 @@ public class SocketImpl implements Socket{
                 Object[] tuple = buildSafeBatchUnreliable(PacketType.batchUnreliable, bb, i, bufferSize);
                 byte[] fullPackage = (byte[]) tuple[0];
                 i = ((Integer) tuple[1]);
-                sendData(fullPackage);
+                sendDataWithAcks(fullPackage);
             }
         }
     }
 
     @Override
     public void sendSerialized(byte[] data) {
+        if (isConnected() && coalescing) {
+            coalesce(data);
+        } else if (isConnected()) {
+            byte[] fullPackage = build5bytePooled(reliableRequest, data);
+            sendReliable(null, fullPackage, Priority.NORMAL);
+        }
+    }
+
+    @Override
+    public void sendSequenced(Object o){
         if (isConnected()) {
-            int seq = this.seq.getAndIncrement();
-            byte[] fullPackage = build5byte(reliableRequest, seq, data);
-            saveRequest(seq, fullPackage);
-            sendData(fullPackage);
+            sendBuffer[0] = sequenced;
+            PacketType.putInt(sendBuffer, sequencedSeq.getAndIncrement(), 1);
+            int size = serializer.serialize(o, sendBuffer, 5);
+            try {
+                sendWithAcks(sendBuffer, sendByteBuffer, size + 5);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    @Override
+    public void sendSequenced(NetBatch batch){
+        if (isConnected()) {
+            int size = batch.size();
+            switch (size) {
+                case 0:
+                    return;
+                case 1:
+                    sendSequenced(batch.get(0));
+                    return;
+            }
+
+            ByteBatch bb = batch.convertAndGet(serializer);
+            int i = 0;
+            while (i < size) {
+                Object[] tuple = buildSafeBatch(sequencedSeq.getAndIncrement(), PacketType.batchSequenced, bb, i, bufferSize);
+                byte[] fullPackage = (byte[]) tuple[0];
+                i = ((Integer) tuple[1]);
+                sendDataWithAcks(fullPackage);
+            }
+        }
+    }
+
+    @Override
+    public void setCoalescing(boolean enabled) {
+        coalescing = enabled;
+        if (!enabled) {
+            flush();
+        }
+    }
+
+    @Override
+    public boolean isCoalescing() {
+        return coalescing;
+    }
+
+    @Override
+    public void flush() {
+        synchronized (coalesced) {
+            if (coalesced.size() == 0) return;
+            if (isConnected()) {
+                if (coalesced.size() == 1) {
+                    byte[] fullPackage = build5bytePooled(reliableRequest, coalesced.get(0));
+                    sendReliable(null, fullPackage, Priority.NORMAL);
+                } else {
+                    byte[] fullPackage = (byte[]) buildSafeBatch(0, PacketType.batch, coalesced, 0, bufferSize)[0];
+                    sendReliable(null, fullPackage, Priority.NORMAL);
+                }
+            }
+            coalesced.clear();
+            coalescedSize = 6;
+        }
+    }
+
+    /**
+     * Holds serialized Object until flush. Flushes earlier if it doesn't fit in one batch packet
+     */
+    private void coalesce(byte[] data){
+        synchronized (coalesced) {
+            int size = coalesced.size();
+            if (size > 0 && (coalescedSize + data.length + 2 > bufferSize || size >= maxBatchSize)) {
+                flush();
+            }
+            coalesced.add(data);
+            coalescedSize += data.length + 2;
         }
+        wake();
     }
 
     @Override
@@ -395,9 +972,8 @@ public class SocketImpl implements Socket{
         if (isConnected()) {
             sendBuffer[0] = unreliable;
             System.arraycopy(data, 0, sendBuffer, 1, data.length);
-            sendPacket.setLength(data.length + 1);
             try {
-                udp.send(sendPacket);
+                sendWithAcks(sendBuffer, sendByteBuffer, data.length + 1);
             } catch (IOException e) {
                 e.printStackTrace();
             }
@@ -538,6 +1114,39 @@ public class SocketImpl implements Socket{
         this.cm = cm;
     }
 
+    @Override
+    public int getReceivingQueueSize() {
+        return queue.size();
+    }
+
+    @Override
+    public int getReceivingQueueHighWaterMark() {
+        return queue.getHighWaterMark();
+    }
+
+    @Override
+    public long getReceivingQueueDropped() {
+        return queue.getDropped();
+    }
+
+    @Override
+    public CongestionWindow getCongestionWindow() {
+        return cw;
+    }
+
+    @Override
+    public void setCongestionWindow(CongestionWindow cw) {
+        this.cw = cw;
+        sendPending();
+    }
+
+    /**
+     * @return bytes of reliable packets that wait for ack
+     */
+    int getBytesInFlight() {
+        return bytesInFlight.get();
+    }
+
     @Override
     public long getResendDelay() {
         return resendCD;
@@ -571,7 +1180,26 @@ public class SocketImpl implements Socket{
     //* CODE *//
     //********//
 
-    private void deserializeAndPut(byte[] data, int offset, int length){
+    /**
+     * Puts received reliable object in queue for update(). If queue is full, object is dropped and,
+     * depending on {@link #receivingQueueOverflow}, socket is disconnected
+     */
+    private void enqueue(Object o){
+        if (!queue.put(o) && receivingQueueOverflow == OverflowPolicy.DISCONNECT && !overflowed) {
+            overflowed = true;
+            queue.putForced(new DisconnectionPacket(DisconnectionPacket.OVERFLOW, DCType.QUEUE_OVERFLOW));
+        }
+    }
+
+    /**
+     * Puts received unreliable or sequenced object in queue for update(). If queue is full, object is dropped and counted
+     * whatever {@link #receivingQueueOverflow} is. Sender is ready to lose them anyway
+     */
+    private void enqueueUnreliable(Object o){
+        queue.put(o);
+    }
+
+    private void deserializeAndPut(byte[] data, int offset, int length, boolean reliable){
         Object obj;
         try {
             obj = serializer.deserialize(data, offset, length);
@@ -579,8 +1207,12 @@ public class SocketImpl implements Socket{
             e.printStackTrace();
             return;
         }
-        if (obj != null)
-            queue.put(obj);
+        if (obj == null) return;
+        if (reliable) {
+            enqueue(obj);
+        } else {
+            enqueueUnreliable(obj);
+        }
     }
 
     private void launchReceiveThread() {
@@ -588,11 +1220,11 @@ public class SocketImpl implements Socket{
             @Override
             public void run() {
                 byte[] receiveBuffer = SocketImpl.this.receiveBuffer;
-                DatagramPacket packet = SocketImpl.this.receivePacket;
                 UDPSocket udp = SocketImpl.this.udp;
                 while (true) {
+                    int length;
                     try {
-                        udp.receive(packet);
+                        length = receive();
                     } catch (IOException e) {
                         if (udp.isClosed()){
                             return;
@@ -601,8 +1233,7 @@ public class SocketImpl implements Socket{
                         }
                     }
 
-                    int length = packet.getLength();
-                    if (length > 5) {
+                    if (length >= 5) {
                         byte type = receiveBuffer[0];
                         receiveData(receiveBuffer, type, length);
                     }
@@ -619,37 +1250,117 @@ public class SocketImpl implements Socket{
      */
     void receiveData(byte[] fullPacket, byte type, int length){
         lastTimeReceivedMsg = System.currentTimeMillis();
+        if ((type & ackFlag) != 0){
+            if (length < 5 + ackTrailerSize) return;
+            length -= ackTrailerSize;
+            updateRemoteWindow(extractShort(fullPacket, length + 12));
+            removeFromWaitingForAck(requestList, extractInt(fullPacket, length), extractLong(fullPacket, length + 4), lastTimeReceivedMsg);
+            type &= ~ackFlag;
+        }
         final int seq = PacketType.extractInt(fullPacket, 1);
         switch (type){
             case reliableRequest:
-                sendAck(seq);
                 int expectedSeq1 = lastInsertedSeq + 1;
+                if (!receivingSortQueue.fits(expectedSeq1, seq)){
+                    break; //Слишком далеко впереди. Не подтверждаем, будет переслан.
+                }
                 if (seq == expectedSeq1){
                     lastInsertedSeq = seq;
-                    deserializeAndPut(fullPacket, 5, length - 5);
+                    deserializeAndPut(fullPacket, 5, length - 5, true);
                     updateReceiveOrderQueue();
-                } else if (seq > expectedSeq1){
-                    Object obj;
+                } else if (seq > expectedSeq1 && !receivingSortQueue.contains(expectedSeq1, seq)){
+                    Object obj = null;
                     try {
                         obj = serializer.deserialize(fullPacket, 5, length - 5);
                     } catch (Exception e) {
                         e.printStackTrace();
-                        break;
                     }
                     if (obj != null)
                         addToWaitings(seq, obj);
                 }
+                //Подтверждаем после того, как объект попал в очередь, чтобы окно в подтверждении его уже учитывало
+                sendAck(seq);
                 break;
-            case reliableAck:
-                removeFromWaitingForAck(seq, lastTimeReceivedMsg);
-                break;
-            case unreliable:
-                deserializeAndPut(fullPacket, 1, length - 1);
-                break;
-            case batch:
+            case expired:
+                int expectedSeq6 = lastInsertedSeq + 1;
+                if (!receivingSortQueue.fits(expectedSeq6, seq)){
+                    break;
+                }
                 sendAck(seq);
-                int expectedSeq2 = lastInsertedSeq + 1;
-                if (seq < expectedSeq2){
+                if (seq < expectedSeq6 || receivingSortQueue.contains(expectedSeq6, seq)){
+                    break; //Пакет всё же дошёл раньше
+                }
+                if (seq == expectedSeq6){
+                    lastInsertedSeq = seq;
+                    updateReceiveOrderQueue();
+                } else {
+                    addToWaitings(seq, new PingPacket(0));
+                }
+                break;
+            case reliableUnordered:
+                //Свой seq, поэтому потеря не задерживает упорядоченные пакеты. В окне хранятся только пустышки полученных seq
+                ReorderWindow<Object> seen = unordered.receivingSortQueue;
+                int expectedSeq4 = unordered.lastInsertedSeq + 1;
+                if (!seen.fits(expectedSeq4, seq)){
+                    break;
+                }
+                if (seq < expectedSeq4 || seen.contains(expectedSeq4, seq)){
+                    sendAck(unordered, seq); //Дубликат
+                    break;
+                }
+                deserializeAndPut(fullPacket, 5, length - 5, true);
+                seen.insert(expectedSeq4, seq, new PingPacket(0));
+                if (seq == expectedSeq4){
+                    unordered.lastInsertedSeq = updateReceiveOrderQueue(seen, unordered.lastInsertedSeq);
+                }
+                sendAck(unordered, seq);
+                break;
+            case reliableAck:
+                removeFromWaitingForAck(seq, lastTimeReceivedMsg);
+                break;
+            case channelRequest:
+            case channelBatch:
+                if (length >= 6 && fullPacket[5] != 0) {
+                    receiveChannelData(channel(fullPacket[5] & 0xFF), seq, fullPacket, type, length);
+                }
+                break;
+            case channelAck:
+                if (length >= channelAckSize && fullPacket[13] != 0) {
+                    updateRemoteWindow(extractShort(fullPacket, 14));
+                    Channel channel = channel(fullPacket[13] & 0xFF);
+                    removeFromWaitingForAck(channel.requestList, seq, extractLong(fullPacket, 5), lastTimeReceivedMsg);
+                }
+                break;
+            case selectiveAck:
+                if (length >= selectiveAckSize) {
+                    updateRemoteWindow(extractShort(fullPacket, 13));
+                    removeFromWaitingForAck(requestList, seq, extractLong(fullPacket, 5), lastTimeReceivedMsg);
+                }
+                break;
+            case unorderedAck:
+                if (length >= selectiveAckSize) {
+                    updateRemoteWindow(extractShort(fullPacket, 13));
+                    removeFromWaitingForAck(unordered.requestList, seq, extractLong(fullPacket, 5), lastTimeReceivedMsg);
+                }
+                break;
+            case windowUpdate:
+                if (length >= windowUpdateSize) {
+                    updateRemoteWindow(extractShort(fullPacket, 5));
+                    wake();
+                    sendPending();
+                    sendBigParts();
+                }
+                break;
+            case unreliable:
+                deserializeAndPut(fullPacket, 1, length - 1, false);
+                break;
+            case batch:
+                int expectedSeq2 = lastInsertedSeq + 1;
+                if (!receivingSortQueue.fits(expectedSeq2, seq)){
+                    break;
+                }
+                if (seq < expectedSeq2 || receivingSortQueue.contains(expectedSeq2, seq)){
+                    sendAck(seq);
                     break;
                 }
 
@@ -659,7 +1370,7 @@ public class SocketImpl implements Socket{
                         lastInsertedSeq = seq;
                         batchPackets = PacketType.breakBatchDown(fullPacket, serializer);
                         for (Object batchPacket : batchPackets) {
-                            queue.put(batchPacket);
+                            enqueue(batchPacket);
                         }
                         updateReceiveOrderQueue();
                     } else {
@@ -667,28 +1378,89 @@ public class SocketImpl implements Socket{
                         addToWaitings(seq, batchPackets);
                     }
                 } catch (Exception ignore){}
+                sendAck(seq); //После enqueue, чтобы окно учитывало все объекты batch
+                break;
+            case sequenced:
+                if (seq - lastSequencedSeq > 0){
+                    lastSequencedSeq = seq;
+                    deserializeAndPut(fullPacket, 5, length - 5, false);
+                }
+                break;
+            case batchSequenced:
+                if (seq - lastSequencedSeq > 0){
+                    lastSequencedSeq = seq;
+                    try {
+                        Object[] batchPackets = PacketType.breakBatchDown(fullPacket, serializer);
+                        for (Object batchPacket : batchPackets) {
+                            enqueueUnreliable(batchPacket);
+                        }
+                    } catch (Exception ignore){}
+                }
                 break;
             case batchUnreliable:
                 try {
                     Object[] batchPackets = PacketType.breakBatchDownUnreliable(fullPacket, serializer);
                     for (Object batchPacket : batchPackets) {
-                        queue.put(batchPacket);
+                        enqueueUnreliable(batchPacket);
                     }
                 } catch (Exception ignore){}
                 break;
-            case bigRequest:
+            case streamStart:
+            case streamData:
+                int expectedSeq5 = lastInsertedSeq + 1;
+                if (!receivingSortQueue.fits(expectedSeq5, seq)){
+                    break;
+                }
                 sendAck(seq);
+                if (seq < expectedSeq5 || receivingSortQueue.contains(expectedSeq5, seq) || length < streamHeaderSize){
+                    break;
+                }
+                Object streamPacket = type == streamStart
+                        ? readStreamStart(fullPacket, length)
+                        : new StreamPart(extractShort(fullPacket, 5), fullPacket[7], copyOfRange(fullPacket, streamHeaderSize, length));
+                if (seq == expectedSeq5){
+                    lastInsertedSeq = seq;
+                    enqueue(streamPacket);
+                    updateReceiveOrderQueue();
+                } else {
+                    addToWaitings(seq, streamPacket);
+                }
+                break;
+            case streamCancel:
+                OutgoingStream cancelled = findStream(extractShort(fullPacket, 5));
+                if (cancelled != null) {
+                    cancelled.cancelled = true;
+                }
+                break;
+            case streamCredit:
+                if (length < streamCreditSize) break;
+                OutgoingStream credited = findStream(extractShort(fullPacket, 5));
+                long limit = extractLong(fullPacket, 7);
+                if (credited != null && limit > credited.credit) {
+                    credited.credit = limit;
+                    wake();
+                }
+                break;
+            case bigRequest:
                 int expectedSeqBig = lastInsertedSeq + 1;
-                if (seq >= expectedSeqBig){
-                    toBigAccumulator(seq, fullPacket);
+                if (!receivingSortQueue.fits(expectedSeqBig, seq)){
+                    break;
+                }
+                //Уже собранный объект занимает seq своих частей в receivingSortQueue
+                if (seq < expectedSeqBig || receivingSortQueue.contains(expectedSeqBig, seq)){
+                    sendAck(seq);
+                } else if (length >= bigHeaderSize && toBigAccumulator(seq, fullPacket, length)){
+                    sendAck(seq);
                 }
                 break;
             case pingRequest:
+                int expectSeq3 = this.lastInsertedSeq + 1;
+                if (!receivingSortQueue.fits(expectSeq3, seq)){
+                    break;
+                }
                 final long startTime = extractLong(fullPacket, 5);
                 sendPingResponse(seq, startTime);
 
-                int expectSeq3 = this.lastInsertedSeq + 1;
-
                 if (expectSeq3 == seq){
                     lastInsertedSeq = seq;
                     updateReceiveOrderQueue();
@@ -701,16 +1473,12 @@ public class SocketImpl implements Socket{
                 boolean removed = removeFromWaitingForAck(seq, lastTimeReceivedMsg);
                 if (removed){
                     PingPacket ping = new PingPacket(((float) (System.nanoTime() - startingTime))/1000000f);
-                    queue.put(ping);
+                    enqueueUnreliable(ping);
                 }
                 break;
             case connectionRequest:
                 if (!isClientSocket){
-                    try {
-                        udp.send(serverConnectionResponse);
-                    } catch (IOException ignore) {
-                        ignore.printStackTrace();
-                    }
+                    sendData(serverConnectionResponse);
                 }
                 break;
             case connectionResponseOk:
@@ -719,56 +1487,64 @@ public class SocketImpl implements Socket{
                 break;
             case disconnect:
                 String msg = new String(fullPacket, 5, length - 5);
-                queue.put(new DisconnectionPacket(DisconnectionPacket.EVENT_RECEIVED, msg));
+                queue.putForced(new DisconnectionPacket(DisconnectionPacket.EVENT_RECEIVED, msg));
                 break;
             default:
                 System.err.println("Unknown message type: " + type);
         }
     }
 
-    private void toBigAccumulator(int seq, byte[] fullPacketBig) {
-        byte[] userData = new byte[fullPacketBig.length - 9];
-        System.arraycopy(fullPacketBig, 9, userData, 0, userData.length);
+    /**
+     * @return false if part is rejected and must not be acknowledged: header is invalid
+     * or {@link #maxBigAccumulators} other objects are being assembled
+     */
+    private boolean toBigAccumulator(int seq, byte[] fullPacketBig, int length) {
         int id = PacketType.extractShort(fullPacketBig, 5);
+        int packs = PacketType.extractShort(fullPacketBig, 7);
+        int index = PacketType.extractShort(fullPacketBig, 9);
+        if (packs < 1 || packs > maxBigParts || index < 0 || index >= packs) {
+            return false;
+        }
         BigStorage bs = bigAccumulator.get(id);
-        if (bs == null){
-            bs = new BigStorage(extractShort(fullPacketBig, 7));
-            bigAccumulator.put(id, bs);
+        if (bs != null && bs.totalPackets != packs) {
+            return false;
         }
 
-        //Если заполнили BigStorage
-        if (bs.put(seq, userData)){
-            int lastSeqOfParts = lastInsertedSeq;
-            int totalByteSize = 0;
-            for (SortedIntList.Node<byte[]> part : bs.parts) {
-                totalByteSize += part.value.length;
-                lastSeqOfParts = part.index;
+        boolean full;
+        try {
+            if (bs == null){
+                if (bigAccumulator.size >= maxBigAccumulators) {
+                    return false;
+                }
+                bs = new BigStorage(seq - index, packs, bufferSize - bigHeaderSize);
+                bigAccumulator.put(id, bs);
             }
-            byte[] result = new byte[totalByteSize];
-            int offset = 0;
-            for (SortedIntList.Node<byte[]> part : bs.parts) {
-                byte[] value = part.value;
+            full = bs.put(index, fullPacketBig, bigHeaderSize, length - bigHeaderSize);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        }
 
-                System.arraycopy(value, 0, result, offset, value.length);
-                offset += value.length;
-            }
+        //Если заполнили BigStorage
+        if (full){
+            int lastSeqOfParts = bs.getLastSeq();
             bigAccumulator.remove(id);
 
             Object deserialized = null;
             try {
-                deserialized = serializer.deserialize(result);
+                deserialized = serializer.deserialize(bs.getData(), 0, bs.getLength());
             } catch (Exception e) {
                 e.printStackTrace();
             }
             //Собрали массив целиком. И из него объект, удалив BigStorage.
 
             int expectedSeq = lastInsertedSeq + 1;
-            int firstPartSeq = bs.parts.first.index;
+            int firstPartSeq = bs.firstSeq;
 
             if (firstPartSeq == expectedSeq){ //Если мы прямо сейчас ожидаем этот объект, то просто присваиваем lastInsertedSeq последним seq части и заносим объект в очередь
                 lastInsertedSeq = lastSeqOfParts;
                 try {
-                    queue.put(deserialized);
+                    enqueue(deserialized);
                 } catch (Exception e) {
                     e.printStackTrace();
                 }
@@ -777,11 +1553,95 @@ public class SocketImpl implements Socket{
             } else if (firstPartSeq > expectedSeq){ //Если же мы впереди всё ещё ждём чего-то, то добавляем объект в Waitings. Заполняя остатки seq PingPacket-ами
                 PingPacket pp = new PingPacket(0);
                 addToWaitings(firstPartSeq, deserialized != null ? deserialized : pp);
-                for (int i = 1; i < bs.parts.size; i++) {
+                for (int i = 1; i < bs.totalPackets; i++) {
                     addToWaitings(firstPartSeq + i, pp);
                 }
             }
         }
+        return true;
+    }
+
+    private IncomingStream readStreamStart(byte[] fullPacket, int length){
+        Object header = null;
+        if (length > 15) {
+            try {
+                header = serializer.deserialize(fullPacket, 15, length - 15);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+        return new IncomingStream(extractShort(fullPacket, 5), extractLong(fullPacket, 7), header, streamWindow > 0 ? streamWindow : Long.MAX_VALUE);
+    }
+
+    private static byte[] copyOfRange(byte[] src, int from, int to){
+        byte[] copy = new byte[to - from];
+        System.arraycopy(src, from, copy, 0, copy.length);
+        return copy;
+    }
+
+    /**
+     * Writes part of incoming stream to its sink. Called from processData
+     */
+    private void receiveStreamPart(StreamPart part){
+        IncomingStream stream = incomingStreams.get(part.id);
+        if (stream == null) {
+            //Отклонён или уже закончен
+            if ((part.flags & (streamLast | streamAborted)) == 0) {
+                sendStreamCancel(part.id);
+            }
+            return;
+        }
+        if ((part.flags & streamAborted) != 0) {
+            finishIncoming(stream, false);
+            return;
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(part.data);
+            while (buffer.hasRemaining()) {
+                stream.sink.write(buffer);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            finishIncoming(stream, false);
+            sendStreamCancel(part.id);
+            return;
+        }
+        stream.written += part.data.length;
+        if (stream.listener != null) {
+            stream.listener.progress(this, stream.written, stream.getSize());
+        }
+        if ((part.flags & streamLast) != 0) {
+            finishIncoming(stream, true);
+        } else if (streamWindow > 0 && stream.granted - stream.written <= streamWindow / 2) {
+            //Кредит выдаётся только за записанное в sink, поэтому в памяти не больше streamWindow байт потока
+            stream.granted = stream.written + streamWindow;
+            sendStreamCredit(stream.id, stream.granted);
+        } else if ((part.flags & streamProbe) != 0) {
+            //Прошлый streamCredit мог потеряться
+            sendStreamCredit(stream.id, stream.granted);
+        }
+    }
+
+    private void finishIncoming(IncomingStream stream, boolean success){
+        incomingStreams.remove(stream.id);
+        if (stream.listener != null) {
+            stream.listener.finished(this, success);
+        }
+    }
+
+    private void sendStreamCredit(int id, long limit){
+        byte[] credit = new byte[streamCreditSize];
+        credit[0] = PacketType.streamCredit;
+        PacketType.putShort(credit, id, 5);
+        PacketType.putLong(credit, limit, 7);
+        sendData(credit);
+    }
+
+    private void sendStreamCancel(int id){
+        byte[] cancel = new byte[7];
+        cancel[0] = PacketType.streamCancel;
+        PacketType.putShort(cancel, id, 5);
+        sendData(cancel);
     }
 
     /**
@@ -791,7 +1651,7 @@ public class SocketImpl implements Socket{
         PacketType.putInt(pingResponseBuffer, seq, 1);
         PacketType.putLong(pingResponseBuffer, startTime, 5);
         try {
-            udp.send(pingResponsePacket);
+            send(pingResponseBuffer, pingResponseByteBuffer, pingResponseBuffer.length);
         } catch (IOException e) {}
     }
 
@@ -802,19 +1662,65 @@ public class SocketImpl implements Socket{
      * @param userData Object - пакет, Object[] - Батч пакет, PingPacket - пинг.
      */
     private void addToWaitings(int seq, Object userData) {
-        receivingSortQueue.insert(seq, userData);
+        receivingSortQueue.insert(lastInsertedSeq + 1, seq, userData);
     }
 
     private boolean removeFromWaitingForAck(int seq, long currentTime) {
+        boolean removed;
+        synchronized (requestList){
+            removed = removeAndCalculate(requestList, seq, currentTime);
+        }
+        sendPending();
+        sendBigParts();
+        return removed;
+    }
+
+    /**
+     * Releases latestSeq and every seq marked in bits in one pass
+     */
+    private void removeFromWaitingForAck(ResendWindow requestList, int latestSeq, long bits, long currentTime) {
         synchronized (requestList){
-            ResendPacket removed = requestList.remove(seq);
-            if (removed != null){
-                sendPacketPool.free(removed);
-                resendCD = cm.calculateDelay(removed, currentTime, resendCD);
-                return true;
+            removeAndCalculate(requestList, latestSeq, currentTime);
+            while (bits != 0){
+                int i = Long.numberOfTrailingZeros(bits);
+                removeAndCalculate(requestList, latestSeq - 1 - i, currentTime);
+                bits &= bits - 1;
             }
         }
-        return false;
+        sendPending();
+        sendBigParts();
+    }
+
+    private boolean removeAndCalculate(ResendWindow requestList, int seq, long currentTime){
+        ResendPacket removed = requestList.remove(seq);
+        if (removed == null) return false;
+        byte type = removed.data[0];
+        if (type == PacketType.bigRequest) {
+            bigInFlight.decrementAndGet();
+        } else if (type == PacketType.streamData) {
+            bigInFlight.decrementAndGet();
+            OutgoingStream stream = findStream(extractShort(removed.data, 5));
+            if (stream != null) {
+                stream.inFlight.decrementAndGet();
+                stream.acknowledged.addAndGet(removed.data.length - streamHeaderSize);
+            }
+        }
+        resendCD = cm.calculateDelay(removed, currentTime, resendCD);
+        bytesInFlight.addAndGet(-removed.data.length);
+        objectsInFlight.addAndGet(-removed.objects);
+        CongestionWindow cw = this.cw;
+        if (cw != null) {
+            cw.onAck(removed.data.length, removed.resends == 0 ? System.nanoTime() - removed.sendTimeNanos : -1);
+        }
+        //Пересланный пакет мог попасть в resendQueue и отправляться прямо сейчас, его не переиспользуем
+        if (removed.resends == 0) {
+            bufferPool.free(removed.data);
+        }
+        removed.data = null;
+        if (requestList == this.requestList) {
+            sendPacketPool.free(removed); //Пул защищён локом requestList основного канала
+        }
+        return true;
     }
 
     private void processData(SocketProcessor processor){
@@ -840,7 +1746,7 @@ public class SocketImpl implements Socket{
                     state = SocketState.CLOSED;
                     DisconnectionPacket dcPacket = (DisconnectionPacket) poll;
 
-                    if (dcPacket.type == DisconnectionPacket.TIMED_OUT){
+                    if (dcPacket.type == DisconnectionPacket.TIMED_OUT || dcPacket.type == DisconnectionPacket.OVERFLOW){
                         byte[] bytes = build5byte(disconnect, 0, Utils.trimDCMessage(dcPacket.message, bufferSize));
                         sendData(bytes);
                     }
@@ -853,6 +1759,16 @@ public class SocketImpl implements Socket{
 
                     notifyDcListenersAndRemoveAll(dcPacket.message);
                     break;
+                } else if (poll instanceof StreamPart){
+                    receiveStreamPart((StreamPart) poll);
+                } else if (poll instanceof IncomingStream){
+                    IncomingStream stream = (IncomingStream) poll;
+                    processor.process(this, stream);
+                    if (stream.isAccepted()) {
+                        incomingStreams.put(stream.id, stream);
+                    } else {
+                        sendStreamCancel(stream.id);
+                    }
                 } else {
                     processor.process(this, poll);
                 }
@@ -866,14 +1782,236 @@ public class SocketImpl implements Socket{
             t.printStackTrace();
         }
         processing = false;
+        if (!interrupted) sendWindowUpdate();
         return;
     }
 
+    /**
+     * @return how many more objects can be put in receiving queue: {@link #receiveWindow} or receivingQueueSize
+     * minus objects waiting for update(). {@link PacketType#unlimitedWindow} if window is not advertised
+     */
+    private int advertisedWindow(){
+        int capacity = windowCapacity();
+        if (capacity == 0) return unlimitedWindow;
+        return Math.max(0, capacity - queue.size());
+    }
+
+    private int windowCapacity(){
+        int capacity = receiveWindow;
+        if (capacity <= 0) return 0;
+        int limit = queue.getLimit();
+        if (limit > 0 && limit < capacity) capacity = limit;
+        return Math.min(capacity, unlimitedWindow - 1);
+    }
+
+    /**
+     * Tells the other end that queue was emptied if the last advertised window was less than a half.
+     * Otherwise sender would wait for the next ack to find out
+     */
+    private void sendWindowUpdate(){
+        int half = windowCapacity() / 2;
+        if (lastAdvertisedWindow >= half) return;
+        synchronized (ackBuffer) {
+            if (lastAdvertisedWindow >= half) return;
+            int window = advertisedWindow();
+            if (window < half) return;
+            lastAdvertisedWindow = window;
+            byte[] update = new byte[windowUpdateSize];
+            update[0] = windowUpdate;
+            PacketType.putShort(update, window, 5);
+            sendData(update);
+        }
+    }
+
+    /**
+     * @param window window from ack, as it's stored in the packet
+     */
+    private void updateRemoteWindow(int window){
+        window &= 0xFFFF;
+        remoteWindow = window == unlimitedWindow ? Integer.MAX_VALUE : window;
+        if (window > 0) windowProbes = 0;
+    }
+
+    /**
+     * @param objects how many objects the packet puts in the receiving queue. See {@link PacketType#objectCount(byte[])}
+     * @return true if the other end has room for them. Everything acknowledged is already counted
+     * in its window, so only objects in flight are subtracted
+     */
+    private boolean remoteWindowOpen(int objects){
+        return objectsInFlight.get() + objects <= remoteWindow;
+    }
+
+    /**
+     * Remembers that seq has to be acknowledged. Ack is sent later with others in one selectiveAck
+     */
     void sendAck(int seq){
+        synchronized (ackBuffer) {
+            //Неотправленные подтверждения не должны выпасть из битового поля
+            if (acks.dropsPending(seq)) {
+                flushAcks();
+            }
+            if (!acks.add(seq)) {
+                //Слишком старый для битового поля. Подтверждаем отдельно
+                sendSingleAck(seq);
+            } else if (pendingAckSince == 0) {
+                pendingAckSince = lastTimeReceivedMsg;
+            }
+        }
+        wake();
+    }
+
+    /**
+     * Same as {@link #sendAck(int)} for additional channel
+     */
+    private void sendAck(Channel channel, int seq){
+        synchronized (ackBuffer) {
+            AckField acks = channel.acks;
+            if (acks.dropsPending(seq)) {
+                sendChannelAck(channel, acks.getLatest(), acks.getBits());
+                acks.sent();
+            }
+            if (!acks.add(seq)) {
+                sendChannelAck(channel, seq, 0);
+            } else if (pendingAckSince == 0) {
+                pendingAckSince = lastTimeReceivedMsg;
+            }
+        }
+        wake();
+    }
+
+    /**
+     * Sends all pending acknowledgements: one selectiveAck, one unorderedAck and one channelAck for every channel that has them
+     */
+    void flushAcks(){
+        synchronized (ackBuffer) {
+            pendingAckSince = 0;
+            for (Channel channel : activeChannels) {
+                flushChannelAcks(channel);
+            }
+            flushChannelAcks(unordered);
+            if (!acks.hasPending()) return;
+            ackBuffer[0] = selectiveAck;
+            PacketType.putInt(ackBuffer, acks.getLatest(), 1);
+            PacketType.putLong(ackBuffer, acks.getBits(), 5);
+            putWindow(ackBuffer, 13);
+            acks.sent();
+            try {
+                send(ackBuffer, ackByteBuffer, selectiveAckSize);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Sends pending acknowledgements if the oldest of them waited at least {@link #maxAckDelay} ms
+     */
+    void flushAcks(long now){
+        synchronized (ackBuffer) {
+            if (pendingAckSince != 0 && now - pendingAckSince >= maxAckDelay) {
+                flushAcks();
+            }
+        }
+    }
+
+    /**
+     * Called under ackBuffer lock
+     */
+    private boolean channelAcksPending(){
+        for (Channel channel : activeChannels) {
+            if (channel.acks.hasPending()) return true;
+        }
+        return unordered.acks.hasPending();
+    }
+
+    /**
+     * Called under ackBuffer lock
+     */
+    private void flushChannelAcks(Channel channel){
+        AckField acks = channel.acks;
+        if (acks.hasPending()) {
+            sendChannelAck(channel, acks.getLatest(), acks.getBits());
+            acks.sent();
+        }
+    }
+
+    /**
+     * Sends channelAck, or unorderedAck for reliable unordered packets. Called under ackBuffer lock
+     */
+    private void sendChannelAck(Channel channel, int latestSeq, long bits){
+        boolean isUnordered = channel == unordered;
+        ackBuffer[0] = isUnordered ? unorderedAck : channelAck;
+        PacketType.putInt(ackBuffer, latestSeq, 1);
+        PacketType.putLong(ackBuffer, bits, 5);
+        if (isUnordered) {
+            putWindow(ackBuffer, 13);
+        } else {
+            ackBuffer[13] = (byte) channel.id;
+            putWindow(ackBuffer, 14);
+        }
+        try {
+            send(ackBuffer, ackByteBuffer, isUnordered ? selectiveAckSize : channelAckSize);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Sends packet with pending acks attached to it. Packet is copied into ackBuffer, so it stays untouched for resends
+     * and no ByteBuffer is created for it
+     */
+    private void sendDataWithAcks(byte[] fullPackage){
+        int length = fullPackage.length;
+        if (length <= bufferSize) {
+            synchronized (ackBuffer) {
+                System.arraycopy(fullPackage, 0, ackBuffer, 0, length);
+                try {
+                    sendWithAcks(ackBuffer, ackByteBuffer, length);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            return;
+        }
+        sendData(fullPackage);
+    }
+
+    /**
+     * Appends pending acks to the first 'length' bytes of buffer if they fit and sends it
+     */
+    private void sendWithAcks(byte[] buffer, ByteBuffer byteBuffer, int length) throws IOException {
+        if (piggybackAcks && length + ackTrailerSize <= bufferSize) {
+            synchronized (ackBuffer) {
+                if (acks.hasPending()) {
+                    buffer[0] |= ackFlag;
+                    PacketType.putInt(buffer, acks.getLatest(), length);
+                    PacketType.putLong(buffer, acks.getBits(), length + 4);
+                    putWindow(buffer, length + 12);
+                    acks.sent();
+                    //Подтверждения каналов остались ждать, время самого старого из них не сбрасываем
+                    if (!channelAcksPending()) pendingAckSince = 0;
+                    send(buffer, byteBuffer, length + ackTrailerSize);
+                    return;
+                }
+            }
+        }
+        send(buffer, byteBuffer, length);
+    }
+
+    /**
+     * Writes current receive window. Called under ackBuffer lock
+     */
+    private void putWindow(byte[] buffer, int offset){
+        int window = advertisedWindow();
+        lastAdvertisedWindow = window;
+        PacketType.putShort(buffer, window, offset);
+    }
+
+    private void sendSingleAck(int seq){
         ackBuffer[0] = reliableAck;
         PacketType.putInt(ackBuffer, seq, 1);
         try {
-            udp.send(ackPacket);
+            send(ackBuffer, ackByteBuffer, 5);
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -885,66 +2023,489 @@ public class SocketImpl implements Socket{
         }
         dcListeners.clear();
         pingListeners.clear();
+
+        OutgoingStream[] streams;
+        synchronized (streamLock) {
+            streams = outgoingStreams;
+            outgoingStreams = new OutgoingStream[0];
+        }
+        for (OutgoingStream stream : streams) {
+            if (stream.listener != null) stream.listener.finished(this, false);
+        }
+        for (IncomingStream stream : incomingStreams.values()) {
+            if (stream.listener != null) stream.listener.finished(this, false);
+        }
+        incomingStreams.clear();
     }
 
     void checkResendPingAndInactivity(long currTime) {
+        flush();
+        flushAcks(currTime);
+        sendPending();
+        sendBigParts();
+        sendStreamParts();
         if (currTime - lastPingSendTime > pingCD){
             sendPing();
             lastPingSendTime = currTime;
         }
         long resendCD = this.resendCD;
+        Array<byte[]> resendQueue = this.resendQueue;
+        expireRequests(currTime);
+        synchronized (resendQueue) {
+            collectResends(requestList, currTime, resendCD, resendQueue);
+            for (Channel channel : activeChannels) {
+                collectResends(channel.requestList, currTime, resendCD, resendQueue);
+            }
+            collectResends(unordered.requestList, currTime, resendCD, resendQueue);
+            for (int i = 0; i < resendQueue.size; i++) {
+                sendData(resendQueue.get(i));
+            }
+            CongestionManager cm = this.cm;
+            if (resendQueue.size > 0 && cm instanceof BackoffCongestionManager) {
+                this.resendCD = ((BackoffCongestionManager) cm).onTimeout(this.resendCD);
+            }
+            CongestionWindow cw = this.cw;
+            if (resendQueue.size > 0 && cw != null) {
+                cw.onLoss();
+            }
+            resendQueue.clear();
+        }
+        if (currTime - lastTimeReceivedMsg > inactivityTimeout){
+            queue.putForced(new DisconnectionPacket(DisconnectionPacket.TIMED_OUT, DCType.TIME_OUT));
+        }
+    }
+
+    /**
+     * Asks server to check this socket on its next update, because there is something to send
+     */
+    private void wake(){
+        ServerSocket server = this.server;
+        if (server != null && !woken.get() && woken.compareAndSet(false, true)) {
+            server.wake(this);
+        }
+    }
+
+    /**
+     * Called by server before it checks woken socket
+     */
+    void clearWoken(){
+        woken.set(false);
+    }
+
+    /**
+     * @return time in ms when {@link #checkResendPingAndInactivity(long)} has something to do: resend, ping, expire a packet
+     * flush acks that waited {@link #maxAckDelay} or disconnect by timeout. now + 1 if it has data that waits for window or bandwidth
+     */
+    long nextCheckTime(long now){
+        if (hasPendingSends || hasBigTransfers || outgoingStreams.length > 0) return now + 1;
+        long resendCD = this.resendCD;
+        long next = Math.min(lastPingSendTime + pingCD, lastTimeReceivedMsg + inactivityTimeout) + 1;
+        synchronized (ackBuffer) {
+            if (pendingAckSince != 0) next = Math.min(next, pendingAckSince + maxAckDelay);
+        }
+        next = Math.min(next, nextDeadline);
+        next = Math.min(next, nextResendTime(requestList, resendCD));
+        for (Channel channel : activeChannels) {
+            next = Math.min(next, nextResendTime(channel.requestList, resendCD));
+        }
+        next = Math.min(next, nextResendTime(unordered.requestList, resendCD));
+        return Math.max(next, now + 1);
+    }
+
+    /**
+     * Adds packets that are waiting for ack longer than resendCD to resendQueue.
+     * Window is walked only if its oldest packet is due
+     */
+    private static void collectResends(ResendWindow requestList, long currTime, long resendCD, Array<byte[]> resendQueue){
         synchronized (requestList) {
-            for (SortedIntList.Node<ResendPacket> pack : requestList) {
-                ResendPacket packet = pack.value;
-                if (currTime - packet.sendTime > resendCD){
-                    sendData(packet.data);
+            if (currTime - requestList.getOldestSendTime() <= resendCD) return;
+            long nanos = System.nanoTime();
+            long oldest = Long.MAX_VALUE;
+            for (int seq = requestList.first(), end = requestList.end(); seq != end; seq++) {
+                ResendPacket packet = requestList.get(seq);
+                if (packet == null) continue;
+                if (currTime - packet.sendTime > resendCD) {
+                    resendQueue.add(packet.data);
                     packet.sendTime = currTime;
+                    packet.sendTimeNanos = nanos;
                     packet.resends++;
                 }
+                if (packet.sendTime < oldest) {
+                    oldest = packet.sendTime;
+                }
             }
+            requestList.setOldestSendTime(oldest);
         }
-        if (currTime - lastTimeReceivedMsg > inactivityTimeout){
-            queue.put(new DisconnectionPacket(DisconnectionPacket.TIMED_OUT, DCType.TIME_OUT));
+    }
+
+    /**
+     * @return time in ms when the oldest packet of the window should be resent
+     */
+    private static long nextResendTime(ResendWindow requestList, long resendCD){
+        synchronized (requestList) {
+            long oldest = requestList.getOldestSendTime();
+            return oldest == Long.MAX_VALUE ? Long.MAX_VALUE : oldest + resendCD + 1;
         }
     }
 
     private void saveRequest(int seq, byte[] fullPackage) {
+        saveRequest(seq, fullPackage, 0);
+    }
+
+    private void saveRequest(int seq, byte[] fullPackage, long deadline) {
+        bytesInFlight.addAndGet(fullPackage.length);
         synchronized (requestList) {
-            requestList.insert(seq, sendPacketPool.obtain().set(fullPackage));
+            ResendPacket packet = sendPacketPool.obtain().set(fullPackage);
+            objectsInFlight.addAndGet(packet.objects);
+            packet.deadline = deadline;
+            requestList.put(seq, packet);
+            if (deadline != 0 && deadline < nextDeadline) nextDeadline = deadline;
+        }
+        wake();
+    }
+
+    /**
+     * Replaces unacknowledged packets that passed their deadline with 'expired' packet of the same seq and sends it right away,
+     * so it's resent instead of the data until the other end acknowledges it and skips this seq.
+     * Sending it is not a resend: expiry doesn't mean the packet was lost, so congestion control doesn't back off
+     */
+    private void expireRequests(long currTime){
+        if (currTime < nextDeadline) return;
+        synchronized (requestList) {
+            long next = Long.MAX_VALUE;
+            for (int seq = requestList.first(), end = requestList.end(); seq != end; seq++) {
+                ResendPacket packet = requestList.get(seq);
+                if (packet == null || packet.deadline == 0) continue;
+                if (currTime < packet.deadline) {
+                    next = Math.min(next, packet.deadline);
+                    continue;
+                }
+                byte[] skip = bufferPool.obtain(5);
+                skip[0] = expired;
+                PacketType.putInt(skip, seq, 1);
+                bytesInFlight.addAndGet(skip.length - packet.data.length);
+                //Как в removeAndCalculate: пересланный пакет мог попасть в resendQueue, его не переиспользуем
+                if (packet.resends == 0) {
+                    bufferPool.free(packet.data);
+                }
+                packet.data = skip;
+                //skip - новый пакет из пула, его вернёт в пул removeAndCalculate, если он не будет переслан
+                packet.resends = 0;
+                packet.deadline = 0;
+                packet.sendTime = currTime;
+                packet.sendTimeNanos = System.nanoTime();
+                sendDataWithAcks(skip);
+            }
+            nextDeadline = next;
+        }
+    }
+
+    private void saveRequest(Channel channel, int seq, byte[] fullPackage) {
+        bytesInFlight.addAndGet(fullPackage.length);
+        ResendPacket packet = new ResendPacket().set(fullPackage);
+        objectsInFlight.addAndGet(packet.objects);
+        synchronized (channel.requestList) {
+            channel.requestList.put(seq, packet);
         }
+        wake();
+    }
+
+    /**
+     * Sends reliable packet if it fits in congestion window, server's bandwidth and receive window of the other end. Otherwise it waits in pendingReliable.
+     * Seq is assigned right before packet goes on the wire, so higher priority packets can overtake queued ones.
+     * @param channel null for channel 0
+     * @param fullPackage packet with place for seq at 1
+     */
+    private void sendReliable(Channel channel, byte[] fullPackage, Priority priority){
+        sendReliable(channel, fullPackage, priority, 0);
+    }
+
+    /**
+     * @param deadline time in ms after which packet is useless. 0 - never. Only for channel 0
+     */
+    private void sendReliable(Channel channel, byte[] fullPackage, Priority priority, long deadline){
+        if (cw == null && !bandwidth.limited && !hasPendingSends && remoteWindowOpen(PacketType.objectCount(fullPackage))) {
+            sendReliableNow(channel, fullPackage, deadline);
+            return;
+        }
+        synchronized (pendingLock) {
+            pendingReliable[priority.ordinal()].addLast(new PendingSend(channel, fullPackage, deadline));
+            hasPendingSends = true;
+        }
+        wake();
+        sendPending();
+    }
+
+    private void sendReliableNow(Channel channel, byte[] fullPackage, long deadline){
+        if (channel == null) {
+            int seq = this.seq.getAndIncrement();
+            PacketType.putInt(fullPackage, seq, 1);
+            saveRequest(seq, fullPackage, deadline);
+        } else {
+            int seq = channel.seq.getAndIncrement();
+            PacketType.putInt(fullPackage, seq, 1);
+            saveRequest(channel, seq, fullPackage);
+        }
+        sendDataWithAcks(fullPackage);
+    }
+
+    /**
+     * Queues unreliable packet until server's bandwidth allows it. If queue is full, oldest packet of the lowest priority
+     * that is not higher than this one is dropped. If there is none, this packet is dropped.
+     */
+    private void queueUnreliable(byte[] fullPackage, Priority priority){
+        synchronized (pendingLock) {
+            if (pendingUnreliableCount >= maxQueuedUnreliable) {
+                int p = pendingUnreliable.length - 1;
+                while (p >= priority.ordinal() && pendingUnreliable[p].isEmpty()) {
+                    p--;
+                }
+                if (p < priority.ordinal()) {
+                    bufferPool.free(fullPackage);
+                    return;
+                }
+                bufferPool.free(pendingUnreliable[p].pollFirst());
+                pendingUnreliableCount--;
+            }
+            pendingUnreliable[priority.ordinal()].addLast(fullPackage);
+            pendingUnreliableCount++;
+            hasPendingSends = true;
+        }
+        wake();
+        sendPending();
+    }
+
+    /**
+     * Sends queued packets from the highest priority to the lowest while congestion window and server's bandwidth allow.
+     * Reliable packets of lower priority wait if higher ones don't fit in the window.
+     * Unreliable packets don't take place in the window, only bandwidth.
+     */
+    private void sendPending(){
+        if (!hasPendingSends) return;
+        synchronized (pendingLock) {
+            long now = System.currentTimeMillis();
+            boolean windowFull = false;
+            for (int p = 0; p < pendingReliable.length && isConnected(); p++) {
+                ArrayDeque<PendingSend> reliable = pendingReliable[p];
+                while (!windowFull && !reliable.isEmpty()) {
+                    PendingSend pending = reliable.peekFirst();
+                    if (pending.big != null) {
+                        //Части ограничиваются окном сами по себе в sendBigParts
+                        reliable.pollFirst();
+                        startBigTransfer(pending.big);
+                        continue;
+                    }
+                    if (pending.deadline != 0 && now >= pending.deadline) {
+                        reliable.pollFirst(); //seq ещё не назначен, поэтому получателю ничего сообщать не нужно
+                        bufferPool.free(pending.data);
+                        continue;
+                    }
+                    if (!congestionAllows(pending.data.length, PacketType.objectCount(pending.data))) {
+                        windowFull = true;
+                        break;
+                    }
+                    reliable.pollFirst();
+                    if (pending.stream != null) {
+                        startStream(pending.stream, pending.data);
+                    } else {
+                        sendReliableNow(pending.channel, pending.data, pending.deadline);
+                    }
+                }
+                ArrayDeque<byte[]> unreliable = pendingUnreliable[p];
+                while (!unreliable.isEmpty()) {
+                    byte[] data = unreliable.peekFirst();
+                    if (!bandwidth.allows(data.length)) break;
+                    unreliable.pollFirst();
+                    pendingUnreliableCount--;
+                    bandwidth.take(data.length);
+                    sendDataWithAcks(data);
+                    bufferPool.free(data); //Скопирован в ackBuffer и больше не нужен
+                }
+                if (!unreliable.isEmpty()) break;
+            }
+            updateHasPendingSends();
+        }
+    }
+
+    /**
+     * Drops unreliable packets of low priority that didn't fit in server's bandwidth of this update
+     */
+    void dropLowPriorityUnreliable(){
+        if (!hasPendingSends) return;
+        synchronized (pendingLock) {
+            ArrayDeque<byte[]> low = pendingUnreliable[Priority.LOW.ordinal()];
+            pendingUnreliableCount -= low.size();
+            while (!low.isEmpty()) {
+                bufferPool.free(low.pollFirst());
+            }
+            updateHasPendingSends();
+        }
+    }
+
+    private void updateHasPendingSends(){
+        boolean has = pendingUnreliableCount > 0;
+        for (int p = 0; p < pendingReliable.length && !has; p++) {
+            has = !pendingReliable[p].isEmpty();
+        }
+        hasPendingSends = has;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <T> ArrayDeque<T>[] newQueues(){
+        ArrayDeque<T>[] queues = new ArrayDeque[Priority.values().length];
+        for (int i = 0; i < queues.length; i++) {
+            queues[i] = new ArrayDeque<T>();
+        }
+        return queues;
+    }
+
+    /**
+     * @return true if packet of this size can be sent now. Takes pacer tokens and server's bandwidth if it can.
+     * Packet is always allowed by window when nothing is in flight, so packets bigger than window are not stuck.
+     * When receive window of the other end is closed and nothing is in flight, one packet goes through as a probe after resendCD,
+     * doubled for every probe in a row, so a lost windowUpdate doesn't stall the connection
+     * @param objects how many objects the packet puts in the receiving queue of the other end
+     */
+    private boolean congestionAllows(int length, int objects){
+        boolean probe = !remoteWindowOpen(objects);
+        //Пока что-то в полёте, окно обновится с подтверждением, проба не нужна
+        if (probe && objectsInFlight.get() > 0) return false;
+        if (probe && System.currentTimeMillis() - lastWindowProbe < resendCD << Math.min(windowProbes, 5)) return false;
+        CongestionWindow cw = this.cw;
+        if (cw != null) {
+            int inFlight = bytesInFlight.get();
+            if (inFlight > 0 && inFlight + length > cw.getWindow()) return false;
+        }
+        if (!bandwidth.allows(length)) return false;
+        if (cw != null && !pacer.tryConsume(length, System.nanoTime(), cw.getPacingRate())) return false;
+        if (probe) {
+            lastWindowProbe = System.currentTimeMillis();
+            windowProbes++;
+        }
+        bandwidth.take(length);
+        return true;
+    }
+
+    /**
+     * Sends queued reliable packets, big object parts and stream parts as far as server's bandwidth allows
+     */
+    void sendScheduled(){
+        sendPending();
+        sendBigParts();
+        sendStreamParts();
+    }
+
+    /**
+     * @return true if there is something that waits for server's bandwidth
+     */
+    boolean hasScheduledBacklog(){
+        return hasPendingSends || hasBigTransfers || outgoingStreams.length > 0;
     }
 
     /**
      * Проверить объекты которые ждут свою очередь
      */
     private void updateReceiveOrderQueue() {
-        int expectedSeq;
+        lastInsertedSeq = updateReceiveOrderQueue(receivingSortQueue, lastInsertedSeq);
+    }
 
-        SortedIntList<Object> queue = this.receivingSortQueue;
-        expectedSeq = lastInsertedSeq + 1;
-        Object mayBeData = queue.remove(expectedSeq);
+    /**
+     * @return new lastInsertedSeq
+     */
+    private int updateReceiveOrderQueue(ReorderWindow<Object> sortQueue, int lastInsertedSeq) {
+        int expectedSeq = lastInsertedSeq + 1;
+        Object mayBeData = sortQueue.remove(expectedSeq);
 
         while (mayBeData != null) {
-            this.lastInsertedSeq = expectedSeq;
+            lastInsertedSeq = expectedSeq;
             if (mayBeData instanceof PingPacket) {
 
             } else if (mayBeData instanceof Object[]){
                 for (Object packet : ((Object[]) mayBeData)) {
-                    this.queue.put(packet);
+                    enqueue(packet);
                 }
             } else {
-                this.queue.put(mayBeData);
+                enqueue(mayBeData);
             }
             expectedSeq = lastInsertedSeq + 1;
-            mayBeData = queue.remove(expectedSeq);
+            mayBeData = sortQueue.remove(expectedSeq);
+        }
+        return lastInsertedSeq;
+    }
+
+    /**
+     * Receives channelRequest or channelBatch. Same as reliableRequest and batch, but in seq space of the channel
+     */
+    private void receiveChannelData(Channel channel, int seq, byte[] fullPacket, byte type, int length){
+        ReorderWindow<Object> sortQueue = channel.receivingSortQueue;
+        int expectedSeq = channel.lastInsertedSeq + 1;
+        if (!sortQueue.fits(expectedSeq, seq)){
+            return;
+        }
+        if (seq < expectedSeq || sortQueue.contains(expectedSeq, seq)){
+            sendAck(channel, seq);
+            return;
+        }
+
+        Object data;
+        try {
+            data = type == channelRequest
+                    ? serializer.deserialize(fullPacket, 6, length - 6)
+                    : PacketType.breakBatchDown(fullPacket, 6, serializer);
+        } catch (Exception e) {
+            e.printStackTrace();
+            data = null;
+        }
+        if (data == null){
+            data = new PingPacket(0); //Пустышка, чтобы не застрять на этом seq
+        }
+        sortQueue.insert(expectedSeq, seq, data);
+        if (seq == expectedSeq){
+            channel.lastInsertedSeq = updateReceiveOrderQueue(sortQueue, channel.lastInsertedSeq);
+        }
+        sendAck(channel, seq);
+    }
+
+    /**
+     * @return channel with this id. Created if it wasn't used before
+     */
+    private Channel channel(int id){
+        Channel channel = channels.get(id);
+        if (channel != null) return channel;
+        synchronized (channels) {
+            channel = channels.get(id);
+            if (channel == null) {
+                channel = new Channel(id, maxReorderWindow);
+                Channel[] active = new Channel[activeChannels.length + 1];
+                System.arraycopy(activeChannels, 0, active, 0, activeChannels.length);
+                active[activeChannels.length] = channel;
+                activeChannels = active;
+                channels.set(id, channel);
+            }
         }
+        return channel;
     }
 
+    private static void checkChannel(int channel){
+        if (channel < 0 || channel > 255) {
+            throw new IllegalArgumentException("Channel must be from 0 to 255, was " + channel);
+        }
+    }
+
+    /**
+     * Sends packet as is. It's copied into its own dataByteBuffer, so this is safe to call while sendBuffer is in use.
+     */
     void sendData(byte[] fullPackage) {
-        System.arraycopy(fullPackage, 0, sendBuffer, 0, fullPackage.length);
         try {
-            sendPacket.setLength(fullPackage.length);
-            udp.send(sendPacket);
+            int length = fullPackage.length;
+            if (length > dataByteBuffer.capacity()) {
+                bandwidth.sentBytes.addAndGet(length);
+                udp.send(ByteBuffer.wrap(fullPackage), remoteAddress);
+                return;
+            }
+            synchronized (dataByteBuffer) {
+                send(fullPackage, dataByteBuffer, length);
+            }
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -952,7 +2513,7 @@ public class SocketImpl implements Socket{
 
     private void sendPing() {
         int seq = this.seq.getAndIncrement();
-        byte[] fullPackage = new byte[13];
+        byte[] fullPackage = bufferPool.obtain(13);
         fullPackage[0] = pingRequest;
         PacketType.putInt(fullPackage, seq, 1);
         PacketType.putLong(fullPackage, System.nanoTime(), 5);
@@ -972,15 +2533,85 @@ public class SocketImpl implements Socket{
                 '}';
     }
 
+    private static class StreamPart {
+        final int id;
+        final byte flags;
+        final byte[] data;
+
+        StreamPart(int id, byte flags, byte[] data) {
+            this.id = id;
+            this.flags = flags;
+            this.data = data;
+        }
+    }
+
+    private static class PendingSend {
+        final Channel channel;
+        final byte[] data;
+        final long deadline;
+        //Не null, если это sendBig(). Seq всех частей назначаются, когда до него доходит очередь
+        final BigTransfer big;
+        //Не null, если это sendStream(). data - его streamStart, части отправляются после него
+        final OutgoingStream stream;
+
+        PendingSend(Channel channel, byte[] data, long deadline) {
+            this.channel = channel;
+            this.data = data;
+            this.deadline = deadline;
+            this.big = null;
+            this.stream = null;
+        }
+
+        PendingSend(BigTransfer big) {
+            this.channel = null;
+            this.data = null;
+            this.deadline = 0;
+            this.big = big;
+            this.stream = null;
+        }
+
+        PendingSend(OutgoingStream stream, byte[] streamStart) {
+            this.channel = null;
+            this.data = streamStart;
+            this.deadline = 0;
+            this.big = null;
+            this.stream = stream;
+        }
+    }
+
+    private static class BigTransfer {
+        final byte[] data;
+        final int id;
+        final int packs;
+        final int maxPerPacket;
+        //Назначается в startBigTransfer
+        int firstSeq;
+        int sent;
+
+        BigTransfer(byte[] data, int id, int packs, int maxPerPacket) {
+            this.data = data;
+            this.id = id;
+            this.packs = packs;
+            this.maxPerPacket = maxPerPacket;
+        }
+    }
+
     public static class ResendPacket {
         public long sendTime;
+        public long sendTimeNanos;
+        public long deadline;
         public int resends;
         public byte[] data;
+        //Сколько объектов пакет кладёт в очередь получателя. Не меняется, когда data заменяется на expired
+        public int objects;
 
         public ResendPacket set(byte[] data){
             this.sendTime = System.currentTimeMillis();
+            this.sendTimeNanos = System.nanoTime();
+            this.deadline = 0;
             this.data = data;
             this.resends = 0;
+            this.objects = PacketType.objectCount(data);
             return this;
         }
     }
@@ -990,6 +2621,7 @@ public class SocketImpl implements Socket{
         public static final int SELF_CLOSED = 1;
         public static final int EVENT_RECEIVED = 2;
         public static final int TIMED_OUT = 3;
+        public static final int OVERFLOW = 4;
 
         public int type;
         public String message;
@@ -3,62 +3,209 @@ package ru.maklas.mnet2;
 import com.badlogic.gdx.utils.Array;
 
 import java.net.DatagramPacket;
+import java.net.Inet4Address;
 import java.net.InetAddress;
-import java.util.Iterator;
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
+/**
+ * Open-addressing hash map of sockets keyed by remote (address, port).
+ * <p>Lookups are lock-free and cost the same regardless of how many sockets are connected.
+ * Modifications are synchronized with each other. Removed entries are replaced by a tombstone,
+ * table is rebuilt and swapped when tombstones and entries take too much space.</p>
+ */
 class SocketMap {
 
-    Array<SocketWrap> sockets = new Array<SocketWrap>();
+    private static final int minCapacity = 16;
+    private static final Entry TOMBSTONE = new Entry(0, 0, 0, null);
+
+    private volatile AtomicReferenceArray<Entry> table = new AtomicReferenceArray<Entry>(minCapacity);
+    private volatile int size;
+    private int used; //entries + tombstones
 
     public void put(SocketImpl socket){
         put(socket.address, socket.port, socket);
     }
 
     public synchronized void put(InetAddress address, int port, SocketImpl socket){
-        sockets.add(new SocketWrap(address, port, socket));
+        Entry entry = newEntry(address, port, socket);
+        AtomicReferenceArray<Entry> table = this.table;
+        int mask = table.length() - 1;
+        int i = entry.hash & mask;
+        int free = -1;
+        Entry e;
+        while ((e = table.get(i)) != null) {
+            if (e == TOMBSTONE) {
+                if (free == -1) free = i;
+            } else if (e.matches(entry.high, entry.low, entry.portAndFamily)) {
+                table.set(i, entry);
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        if (free != -1) {
+            table.set(free, entry);
+        } else {
+            table.set(i, entry);
+            used++;
+        }
+        size++;
+        if (used * 4 >= table.length() * 3) {
+            rebuild(size * 2);
+        }
     }
 
     public SocketImpl get(DatagramPacket packet){
         return get(packet.getAddress(), packet.getPort());
     }
 
-    public synchronized SocketImpl get(InetAddress address, int port){
-        for (SocketWrap socket : sockets) {
-            if (socket.address.equals(address) && socket.port == port){
-                return socket.socket;
+    public SocketImpl get(InetSocketAddress address){
+        return get(address.getAddress(), address.getPort());
+    }
+
+    public SocketImpl get(InetAddress address, int port){
+        long high;
+        long low;
+        int portAndFamily;
+        if (address instanceof Inet4Address) {
+            high = 0;
+            low = address.hashCode() & 0xFFFFFFFFL; //Inet4Address hashCode is the address itself. Avoids getAddress() copy
+            portAndFamily = port;
+        } else {
+            byte[] bytes = address.getAddress();
+            high = toLong(bytes, 0);
+            low = toLong(bytes, 8);
+            portAndFamily = port | (1 << 16);
+        }
+
+        AtomicReferenceArray<Entry> table = this.table;
+        int mask = table.length() - 1;
+        int i = hash(high, low, portAndFamily) & mask;
+        Entry e;
+        while ((e = table.get(i)) != null) {
+            if (e != TOMBSTONE && e.matches(high, low, portAndFamily)) {
+                return e.socket;
             }
+            i = (i + 1) & mask;
         }
         return null;
     }
 
     public synchronized void remove(SocketImpl socket){
-        for (Iterator<SocketWrap> iter = sockets.iterator(); iter.hasNext();) {
-            SocketWrap wrap = iter.next();
-            if (wrap.socket == socket){
-                iter.remove();
+        Entry key = newEntry(socket.address, socket.port, socket);
+        AtomicReferenceArray<Entry> table = this.table;
+        int mask = table.length() - 1;
+        int i = key.hash & mask;
+        Entry e;
+        while ((e = table.get(i)) != null) {
+            if (e != TOMBSTONE && e.socket == socket) {
+                table.set(i, TOMBSTONE);
+                size--;
+                if (used > minCapacity && size * 8 < table.length()) {
+                    rebuild(size * 2);
+                }
                 return;
             }
+            i = (i + 1) & mask;
         }
     }
 
     public synchronized void clear() {
-        sockets.clear();
+        table = new AtomicReferenceArray<Entry>(minCapacity);
+        size = 0;
+        used = 0;
     }
 
-    public synchronized int size() {
-        return sockets.size;
+    public int size() {
+        return size;
     }
 
-    static class SocketWrap {
-        InetAddress address;
-        int port;
-        SocketImpl socket;
+    /**
+     * Adds all sockets to the array. Doesn't block lookups or modifications.
+     * Socket that is added or removed at the same time may or may not be included.
+     */
+    public <T extends Array<? super SocketImpl>> T getSockets(T sockets){
+        AtomicReferenceArray<Entry> table = this.table;
+        for (int i = 0; i < table.length(); i++) {
+            Entry e = table.get(i);
+            if (e != null && e != TOMBSTONE) {
+                sockets.add(e.socket);
+            }
+        }
+        return sockets;
+    }
 
-        public SocketWrap(InetAddress address, int port, SocketImpl socket) {
-            this.address = address;
-            this.port = port;
+    /**
+     * Replaces table with a new one without tombstones
+     */
+    private void rebuild(int minEntries){
+        int capacity = minCapacity;
+        while (capacity * 3 <= minEntries * 4) {
+            capacity <<= 1;
+        }
+        AtomicReferenceArray<Entry> old = this.table;
+        AtomicReferenceArray<Entry> table = new AtomicReferenceArray<Entry>(capacity);
+        int mask = capacity - 1;
+        int used = 0;
+        for (int j = 0; j < old.length(); j++) {
+            Entry e = old.get(j);
+            if (e == null || e == TOMBSTONE) continue;
+            int i = e.hash & mask;
+            while (table.get(i) != null) {
+                i = (i + 1) & mask;
+            }
+            table.set(i, e);
+            used++;
+        }
+        this.used = used;
+        this.table = table;
+    }
+
+    private static Entry newEntry(InetAddress address, int port, SocketImpl socket){
+        byte[] bytes = address.getAddress();
+        if (bytes.length == 4) {
+            return new Entry(0, toInt(bytes) & 0xFFFFFFFFL, port, socket);
+        }
+        return new Entry(toLong(bytes, 0), toLong(bytes, 8), port | (1 << 16), socket);
+    }
+
+    private static int toInt(byte[] bytes){
+        return (bytes[0] & 0xFF) << 24 | (bytes[1] & 0xFF) << 16 | (bytes[2] & 0xFF) << 8 | (bytes[3] & 0xFF);
+    }
+
+    private static long toLong(byte[] bytes, int offset){
+        long result = 0;
+        for (int i = offset; i < offset + 8; i++) {
+            result = (result << 8) | (bytes[i] & 0xFF);
+        }
+        return result;
+    }
+
+    private static int hash(long high, long low, int portAndFamily){
+        long h = (high * 31 + low) * 0x9E3779B97F4A7C15L + portAndFamily;
+        h ^= h >>> 32;
+        h *= 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 29));
+    }
+
+    static class Entry {
+        final long high;
+        final long low;
+        final int portAndFamily;
+        final int hash;
+        final SocketImpl socket;
+
+        Entry(long high, long low, int portAndFamily, SocketImpl socket) {
+            this.high = high;
+            this.low = low;
+            this.portAndFamily = portAndFamily;
+            this.hash = hash(high, low, portAndFamily);
             this.socket = socket;
         }
+
+        boolean matches(long high, long low, int portAndFamily){
+            return this.low == low && this.portAndFamily == portAndFamily && this.high == high;
+        }
     }
 
 }
@@ -0,0 +1,20 @@
+package ru.maklas.mnet2;
+
+/**
+ * Listens to stream transfer started with {@link Socket#sendStream(java.io.InputStream, long, Object, StreamListener)}
+ * or accepted with {@link IncomingStream#accept(java.nio.channels.WritableByteChannel, StreamListener)}.
+ * Called from the thread that updates socket.
+ */
+public interface StreamListener {
+
+    /**
+     * @param transferred bytes acknowledged by the other end when sending, bytes written to the sink when receiving
+     * @param total size of the stream or -1 if it's unknown
+     */
+    void progress(Socket socket, long transferred, long total);
+
+    /**
+     * @param success false if stream was rejected, cancelled, or reading/writing failed
+     */
+    void finished(Socket socket, boolean success);
+}
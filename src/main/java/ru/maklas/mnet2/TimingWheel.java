@@ -0,0 +1,144 @@
+package ru.maklas.mnet2;
+
+import com.badlogic.gdx.utils.Array;
+
+/**
+ * Hierarchical timing wheel. 4 levels of 64 slots, level n slot spans 64^n ticks.
+ * Timer is put into the lowest level that reaches its deadline and moves down a level every time
+ * the level below wraps around, so schedule is O(1) and advance touches only slots that passed
+ * and timers that fire or cascade. Deadlines further than 64^4 ticks wait at the top level and are cascaded again.
+ * <p>Timers can't be cancelled. Instead owner keeps the version of its latest timer and ignores fired timers
+ * of older versions. Fired timers are returned with {@link #free(Array)} and reused.</p>
+ * Not thread safe.
+ */
+class TimingWheel<T> {
+
+    private static final int levels = 4;
+    private static final int bits = 6;
+    private static final int slots = 1 << bits;
+    private static final int mask = slots - 1;
+
+    private final long tickMillis;
+    private final Array<Timer<T>>[][] wheel;
+    private final Array<Timer<T>> cascading = new Array<Timer<T>>();
+    private final Array<Timer<T>> freeTimers = new Array<Timer<T>>(false, 16);
+    private long currentTick;
+    private int size;
+
+    /**
+     * @param tickMillis resolution. Timers fire on the first advance() after their deadline, rounded up to a tick
+     * @param now time in ms from which ticks are counted
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    TimingWheel(long tickMillis, long now) {
+        this.tickMillis = Math.max(1, tickMillis);
+        this.currentTick = now / this.tickMillis;
+        this.wheel = new Array[levels][slots];
+        for (int level = 0; level < levels; level++) {
+            for (int slot = 0; slot < slots; slot++) {
+                wheel[level][slot] = new Array<Timer<T>>(false, 4);
+            }
+        }
+    }
+
+    /**
+     * @param deadline time in ms. If it already passed, timer fires on the next advance()
+     */
+    void schedule(T owner, long deadline, int version){
+        Timer<T> timer = freeTimers.size > 0 ? freeTimers.pop() : new Timer<T>();
+        timer.set(owner, tick(deadline), version);
+        insert(timer);
+        size++;
+    }
+
+    /**
+     * @return tick in which timer with this deadline fires
+     */
+    long tick(long deadline){
+        return (deadline + tickMillis - 1) / tickMillis;
+    }
+
+    /**
+     * @return true if timer of this tick fires on advance(now) or already fired
+     */
+    boolean isDue(long tick, long now){
+        return tick <= now / tickMillis;
+    }
+
+    /**
+     * Takes fired timers back for reuse. They must not be used after that
+     */
+    void free(Array<Timer<T>> fired){
+        for (Timer<T> timer : fired) {
+            timer.owner = null;
+            freeTimers.add(timer);
+        }
+    }
+
+    /**
+     * Moves wheel to 'now' and adds timers whose deadline passed to 'fired'
+     */
+    void advance(long now, Array<Timer<T>> fired){
+        long nowTick = now / tickMillis;
+        while (currentTick <= nowTick) {
+            Array<Timer<T>> slot = wheel[0][(int) (currentTick & mask)];
+            if (slot.size > 0) {
+                fired.addAll(slot);
+                size -= slot.size;
+                slot.clear();
+            }
+            currentTick++;
+            //Сначала верхние уровни, их таймеры могут попасть в слот нижнего, который переносится следом
+            for (int level = levels - 1; level > 0; level--) {
+                if ((currentTick & ((1L << (bits * level)) - 1)) == 0) {
+                    cascade(level, (int) ((currentTick >>> (bits * level)) & mask));
+                }
+            }
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void cascade(int level, int index){
+        Array<Timer<T>> slot = wheel[level][index];
+        if (slot.size == 0) return;
+        cascading.addAll(slot);
+        slot.clear();
+        for (Timer<T> timer : cascading) {
+            insert(timer);
+        }
+        cascading.clear();
+    }
+
+    private void insert(Timer<T> timer){
+        long delta = timer.tick - currentTick;
+        if (delta < 0) {
+            wheel[0][(int) (currentTick & mask)].add(timer);
+            return;
+        }
+        int level = 0;
+        while (level < levels - 1 && delta >= 1L << (bits * (level + 1))) {
+            level++;
+        }
+        long tick = timer.tick;
+        if (delta >= 1L << (bits * levels)) {
+            //Слишком далеко. Ждёт в самом дальнем слоте верхнего уровня и будет перенесён снова
+            tick = currentTick + (1L << (bits * levels)) - 1;
+        }
+        wheel[level][(int) ((tick >>> (bits * level)) & mask)].add(timer);
+    }
+
+    static class Timer<T> {
+        T owner;
+        long tick;
+        int version;
+
+        void set(T owner, long tick, int version) {
+            this.owner = owner;
+            this.tick = tick;
+            this.version = version;
+        }
+    }
+}
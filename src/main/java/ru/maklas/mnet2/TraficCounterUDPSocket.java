@@ -3,7 +3,9 @@ package ru.maklas.mnet2;
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
 import java.util.concurrent.atomic.AtomicLong;
 
 public class TraficCounterUDPSocket implements UDPSocket{
@@ -58,6 +60,23 @@ public class TraficCounterUDPSocket implements UDPSocket{
         receiveSizeCounter.addAndGet(packet.getLength());
     }
 
+    @Override
+    public void send(ByteBuffer buffer, InetSocketAddress address) throws IOException {
+        int length = buffer.remaining();
+        delegate.send(buffer, address);
+        sendPacketCounter.incrementAndGet();
+        sendSizeCounter.addAndGet(length);
+    }
+
+    @Override
+    public InetSocketAddress receive(ByteBuffer buffer) throws IOException {
+        int position = buffer.position();
+        InetSocketAddress address = delegate.receive(buffer);
+        receivePacketCounter.incrementAndGet();
+        receiveSizeCounter.addAndGet(buffer.position() - position);
+        return address;
+    }
+
     @Override
     public void setReceiveTimeout(int millis) throws SocketException {
         delegate.setReceiveTimeout(millis);
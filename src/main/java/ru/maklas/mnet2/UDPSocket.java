@@ -3,7 +3,9 @@ package ru.maklas.mnet2;
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
 
 /**
  * Created by amaklakov on 02.11.2017.
@@ -27,6 +29,22 @@ public interface UDPSocket {
      */
     void receive(DatagramPacket packet) throws IOException;
 
+    /**
+     * Sends remaining bytes of the buffer as a single datagram. Buffer's position is moved to it's limit.
+     * Direct buffers are preferred, as they can be passed to the OS without copying.
+     * Throws {@link IOException} in bad cases
+     * @param address Where to send datagram. Ignored if socket is connected
+     */
+    void send(ByteBuffer buffer, InetSocketAddress address) throws IOException;
+
+    /**
+     * Blocks until the next datagram is received. Datagram is written into the buffer starting from it's position,
+     * position is moved past the last byte received.
+     * Throws {@link SocketException} if socket is getting close
+     * @return address of the sender
+     */
+    InetSocketAddress receive(ByteBuffer buffer) throws IOException;
+
     /**
      * Timeout after which socket.receive will throw SocketException
      * @param millis time in milliseconds
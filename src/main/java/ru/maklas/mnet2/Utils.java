@@ -1,5 +1,9 @@
 package ru.maklas.mnet2;
 
+import java.lang.reflect.Method;
+import java.net.DatagramSocket;
+import java.net.SocketException;
+
 class Utils {
 
 
@@ -25,6 +29,30 @@ class Utils {
         }
     }
 
+    /**
+     * Enables SO_REUSEPORT on unbound DatagramSocket or DatagramChannel.
+     * Option is only available since Java 9, so it's looked up with reflection.
+     * @throws SocketException if option is not supported by this JVM or OS
+     */
+    static void enableReusePort(Object socketOrChannel) throws SocketException {
+        Object option;
+        try {
+            option = Class.forName("java.net.StandardSocketOptions").getField("SO_REUSEPORT").get(null);
+        } catch (Exception e) {
+            throw new SocketException("SO_REUSEPORT is not supported by this JVM");
+        }
+        try {
+            Class<?> type = socketOrChannel instanceof DatagramSocket ? DatagramSocket.class : Class.forName("java.nio.channels.NetworkChannel");
+            Method setOption = type.getMethod("setOption", Class.forName("java.net.SocketOption"), Object.class);
+            setOption.invoke(socketOrChannel, option, Boolean.TRUE);
+        } catch (Exception e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            SocketException ex = new SocketException("Failed to enable SO_REUSEPORT: " + cause.getMessage());
+            ex.initCause(cause);
+            throw ex;
+        }
+    }
+
     public static byte[] trimDCMessage(String s, int bufferSize){
         if (s == null) return DCType.CLOSED.getBytes();
         byte[] msgBytes = s.getBytes();
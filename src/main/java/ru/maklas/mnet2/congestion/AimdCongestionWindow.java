@@ -0,0 +1,78 @@
+package ru.maklas.mnet2.congestion;
+
+/**
+ * <p>Additive increase, multiplicative decrease window, similar to TCP Reno.
+ * Window starts at 10 packets and grows by acknowledged bytes until the first loss (slow start),
+ * then by about one packet per round trip. On loss window is halved.</p>
+ * <p>Packets are paced at window / SRTT, doubled in slow start, so window is not sent in one burst.</p>
+ */
+public class AimdCongestionWindow implements CongestionWindow {
+
+    private final int packetSize;
+    private final int minWindow;
+    private final int maxWindow;
+    private int window;
+    private int slowStartThreshold;
+    private double srtt = -1; //nanos
+
+    /**
+     * Optimal values for {@link #AimdCongestionWindow(int, int, int)} constructor with 512 bytes packets
+     */
+    public AimdCongestionWindow() {
+        this(512, 2 * 512, 1024 * 1024);
+    }
+
+    /**
+     * @param packetSize size of full packet. Usually bufferSize of the socket
+     * @param minWindow window is never less than this. In bytes
+     * @param maxWindow window is never more than this. In bytes
+     */
+    public AimdCongestionWindow(int packetSize, int minWindow, int maxWindow) {
+        this.packetSize = Math.max(1, packetSize);
+        this.minWindow = Math.max(this.packetSize, minWindow);
+        this.maxWindow = Math.max(this.minWindow, maxWindow);
+        this.window = clamp(10 * this.packetSize);
+        this.slowStartThreshold = this.maxWindow;
+    }
+
+    @Override
+    public synchronized int getWindow() {
+        return window;
+    }
+
+    @Override
+    public synchronized long getPacingRate() {
+        if (srtt <= 0) return 0;
+        double rate = window * 1000000000d / srtt;
+        return (long) (window < slowStartThreshold ? rate * 2 : rate * 1.25);
+    }
+
+    @Override
+    public synchronized void onAck(int bytes, long rttNanos) {
+        if (rttNanos >= 0) {
+            srtt = srtt < 0 ? rttNanos : srtt * 7 / 8 + rttNanos / 8d;
+        }
+        if (window < slowStartThreshold) {
+            window = clamp(window + bytes);
+        } else {
+            window = clamp(window + Math.max(1, (int) ((long) packetSize * bytes / window)));
+        }
+    }
+
+    @Override
+    public synchronized void onLoss() {
+        slowStartThreshold = clamp(window / 2);
+        window = slowStartThreshold;
+    }
+
+    /**
+     * @return smoothed round trip time in milliseconds or -1 if there were no samples yet
+     */
+    public synchronized double getSmoothedRtt(){
+        return srtt < 0 ? -1 : srtt / 1000000d;
+    }
+
+    private int clamp(int window){
+        return window < minWindow ? minWindow : window > maxWindow ? maxWindow : window;
+    }
+}
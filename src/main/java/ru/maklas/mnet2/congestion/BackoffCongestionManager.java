@@ -0,0 +1,14 @@
+package ru.maklas.mnet2.congestion;
+
+/**
+ * CongestionManager that is also notified when resend delay expires and packets are resent
+ */
+public interface BackoffCongestionManager extends CongestionManager {
+
+    /**
+     * Called once per resend check in which at least one packet was resent
+     * @return new resend delay
+     */
+    long onTimeout(long currentDelay);
+
+}
@@ -0,0 +1,33 @@
+package ru.maklas.mnet2.congestion;
+
+/**
+ * Limits how many bytes of reliable packets may be sent, but not yet acknowledged,
+ * and how fast they may be put on the wire.
+ * Reliable packets that don't fit in the window are queued by the socket and sent when acks arrive.
+ * Methods can be called from different threads.
+ */
+public interface CongestionWindow {
+
+    /**
+     * @return max number of unacknowledged bytes
+     */
+    int getWindow();
+
+    /**
+     * @return bytes per second at which packets are paced or 0 if packets are sent as soon as window allows
+     */
+    long getPacingRate();
+
+    /**
+     * Called for every acknowledged packet
+     * @param bytes size of acknowledged packet
+     * @param rttNanos round trip time of the packet or -1 if it was resent
+     */
+    void onAck(int bytes, long rttNanos);
+
+    /**
+     * Called once per resend check in which at least one packet was resent
+     */
+    void onLoss();
+
+}
@@ -0,0 +1,47 @@
+package ru.maklas.mnet2.congestion;
+
+/**
+ * Token bucket that spreads sends over time. Tokens are bytes and are added at the given rate.
+ * Bucket holds no more than maxBurst worth of time, so idle connection can't send everything at once.
+ * Thread safe.
+ */
+public class Pacer {
+
+    private final long maxBurstNanos;
+    private double tokens;
+    private long lastTime;
+    private boolean started;
+
+    /**
+     * @param maxBurstMillis how many milliseconds of rate can be saved up while nothing is sent.
+     *                       Should be not less than update interval of the socket, because queued packets are sent on update and on acks
+     */
+    public Pacer(int maxBurstMillis) {
+        this.maxBurstNanos = Math.max(1, maxBurstMillis) * 1000000L;
+    }
+
+    /**
+     * Takes tokens for a packet. Packet is allowed while there are tokens, so bucket may go below zero by one packet
+     * @param bytesPerSecond current rate. 0 or less means no pacing
+     * @return true if packet can be sent now
+     */
+    public synchronized boolean tryConsume(int bytes, long nanoTime, long bytesPerSecond){
+        if (bytesPerSecond <= 0) {
+            started = false;
+            return true;
+        }
+        double max = bytesPerSecond * (maxBurstNanos / 1000000000d);
+        if (!started) {
+            started = true;
+            tokens = max;
+        } else {
+            tokens = Math.min(max, tokens + (nanoTime - lastTime) * (bytesPerSecond / 1000000000d));
+        }
+        lastTime = nanoTime;
+        if (tokens <= 0) {
+            return false;
+        }
+        tokens -= bytes;
+        return true;
+    }
+}
@@ -0,0 +1,79 @@
+package ru.maklas.mnet2.congestion;
+
+import ru.maklas.mnet2.SocketImpl;
+
+/**
+ * <p>Resend delay as in RFC 6298: smoothed RTT and RTT variance are updated on every ack,
+ * delay = SRTT + 4 * RTTVAR. RTT is measured in nanoseconds.</p>
+ * <p>Acks of resent packets are ignored (Karn's rule), because it's unknown which of the copies was acknowledged.
+ * Every time packets are resent, delay is doubled until a new RTT sample arrives.</p>
+ */
+public class RttCongestionManager implements BackoffCongestionManager {
+
+    private static final double alpha = 1 / 8d;
+    private static final double beta = 1 / 4d;
+
+    private final long minDelay;
+    private final long maxDelay;
+    private double srtt = -1; //nanos
+    private double rttvar;    //nanos
+
+    /**
+     * Optimal values for {@link #RttCongestionManager(long, long)} constructor
+     */
+    public RttCongestionManager() {
+        this(16, 2000);
+    }
+
+    /**
+     * @param minDelay resend delay is never less than this. In milliseconds
+     * @param maxDelay resend delay is never more than this, even after backoff. In milliseconds
+     */
+    public RttCongestionManager(long minDelay, long maxDelay) {
+        this.minDelay = Math.max(1, minDelay);
+        this.maxDelay = Math.max(this.minDelay, maxDelay);
+    }
+
+    @Override
+    public long calculateDelay(SocketImpl.ResendPacket respondedPacket, long currentTime, long currentDelay) {
+        if (respondedPacket.resends > 0) {
+            return currentDelay;
+        }
+        double rtt = System.nanoTime() - respondedPacket.sendTimeNanos;
+        if (rtt < 0) {
+            return currentDelay;
+        }
+        if (srtt < 0) {
+            srtt = rtt;
+            rttvar = rtt / 2;
+        } else {
+            rttvar = (1 - beta) * rttvar + beta * Math.abs(srtt - rtt);
+            srtt = (1 - alpha) * srtt + alpha * rtt;
+        }
+        long delay = (long) Math.ceil((srtt + 4 * rttvar) / 1000000d);
+        return clamp(delay);
+    }
+
+    @Override
+    public long onTimeout(long currentDelay) {
+        return clamp(currentDelay * 2);
+    }
+
+    /**
+     * @return smoothed round trip time in milliseconds or -1 if there were no samples yet
+     */
+    public double getSmoothedRtt(){
+        return srtt < 0 ? -1 : srtt / 1000000d;
+    }
+
+    /**
+     * @return round trip time variation in milliseconds
+     */
+    public double getRttVariance(){
+        return rttvar / 1000000d;
+    }
+
+    private long clamp(long delay){
+        return delay < minDelay ? minDelay : delay > maxDelay ? maxDelay : delay;
+    }
+}
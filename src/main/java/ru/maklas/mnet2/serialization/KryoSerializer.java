@@ -9,6 +9,8 @@ public class KryoSerializer implements Serializer {
     private final Kryo kryo;
     private final Input input;
     private final Output output;
+    //Пишет прямо в буфер вызывающего, без промежуточного массива
+    private final Output bufferOutput = new Output();
 
     public KryoSerializer(Kryo kryo, int bufferSize) {
         this.kryo = kryo;
@@ -38,11 +40,18 @@ public class KryoSerializer implements Serializer {
         }
     }
 
+    /**
+     * @throws com.esotericsoftware.kryo.KryoException "Buffer overflow" if object doesn't fit in buffer after offset
+     */
     @Override
     public int serialize(Object o, byte[] buffer, int offset) {
-        byte[] serialized = serialize(o);
-        System.arraycopy(serialized, 0, buffer, offset, serialized.length);
-        return serialized.length;
+        synchronized (kryo){
+            //Максимальный размер равен длине буфера, поэтому Output никогда не создаёт новый массив
+            bufferOutput.setBuffer(buffer, buffer.length);
+            bufferOutput.setPosition(offset);
+            kryo.writeClassAndObject(bufferOutput, o);
+            return bufferOutput.position() - offset;
+        }
     }
 
     @Override
@@ -17,11 +17,13 @@ public interface Serializer {
     byte[] serialize(Object o, int offset);
 
     /**
-     * serializes Object into buffer, presuming that buffer size is bigger than serialized object.
+     * serializes Object into buffer without allocating. Used for every unreliable and reliable send,
+     * so implementation should write directly into the buffer.
      * @param o object to serialize
      * @param buffer buffer to which do serialization
      * @param offset where to put object in buffer
      * @return serialized object length
+     * @throws RuntimeException if object doesn't fit in buffer after offset. Nothing must be written past the end of buffer
      */
     int serialize(Object o, byte[] buffer, int offset);
 
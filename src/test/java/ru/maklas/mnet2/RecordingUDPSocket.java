@@ -0,0 +1,46 @@
+package ru.maklas.mnet2;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Keeps sent packets instead of sending them, so a test can pass them to the other socket by hand
+ */
+public class RecordingUDPSocket extends NioUDPSocket {
+
+    private final List<byte[]> sent = new ArrayList<byte[]>();
+
+    public RecordingUDPSocket() throws IOException {
+        super();
+    }
+
+    @Override
+    public synchronized void send(ByteBuffer buffer, InetSocketAddress address) throws IOException {
+        byte[] packet = new byte[buffer.remaining()];
+        buffer.duplicate().get(packet);
+        sent.add(packet);
+    }
+
+    /**
+     * @return the only packet sent since the last take
+     */
+    public synchronized byte[] take() {
+        assertEquals(1, sent.size());
+        return sent.remove(0);
+    }
+
+    public synchronized List<byte[]> takeAll() {
+        List<byte[]> ret = new ArrayList<byte[]>(sent);
+        sent.clear();
+        return ret;
+    }
+
+    public synchronized boolean isEmpty() {
+        return sent.isEmpty();
+    }
+}
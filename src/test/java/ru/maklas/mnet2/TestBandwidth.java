@@ -0,0 +1,96 @@
+package ru.maklas.mnet2;
+
+import org.junit.Test;
+import ru.maklas.mnet2.objects.ConnectionRequest;
+import ru.maklas.mnet2.objects.UpdateObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.net.InetAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestBandwidth implements ServerAuthenticator {
+
+    //Сервер ограничен 100 кб/с. Один клиент получает поток на 200 кб,
+    //второй подключается позже и получает 100 маленьких. Маленькие не должны ждать большой.
+
+    public static final int port = 9017;
+    private static final int limit = 100 * 1024;
+    private volatile Socket bigSocket;
+    private volatile long bigStarted;
+
+    @Test
+    public void testFairShare() throws Exception {
+        ServerSocket serverSocket = TestUtils.newServerSocket(TestUtils.udp(port, 0, 0), this);
+        serverSocket.setBandwidthLimit(limit);
+        TestUtils.startUpdating(serverSocket, 16);
+
+        Socket bigClient = new SocketImpl(InetAddress.getLocalHost(), port, TestUtils.serializerSupplier.get());
+        assertEquals(ResponseType.ACCEPTED, bigClient.connect(new ConnectionRequest("big", "123", 22, true), 5000).getType());
+        Socket smallClient = new SocketImpl(InetAddress.getLocalHost(), port, TestUtils.serializerSupplier.get());
+        assertEquals(ResponseType.ACCEPTED, smallClient.connect(new ConnectionRequest("small", "123", 22, true), 5000).getType());
+        long smallStarted = System.currentTimeMillis();
+
+        final AtomicInteger big = new AtomicInteger();
+        final AtomicInteger small = new AtomicInteger();
+        SocketProcessor processor = new SocketProcessor() {
+            @Override
+            public void process(Socket sock, Object o) {
+                if (o instanceof IncomingStream) {
+                    ((IncomingStream) o).accept(new ByteArrayOutputStream(), new StreamListener() {
+                        @Override
+                        public void progress(Socket socket, long transferred, long total) {
+                        }
+
+                        @Override
+                        public void finished(Socket socket, boolean success) {
+                            assertTrue(success);
+                            big.incrementAndGet();
+                        }
+                    });
+                } else {
+                    assertEquals(small.getAndIncrement(), ((UpdateObject) o).getForce());
+                }
+            }
+        };
+
+        long smallTime = -1;
+        long bigTime = -1;
+        for (int i = 0; i < 600 && bigTime < 0; i++) {
+            bigClient.update(processor);
+            smallClient.update(processor);
+            long now = System.currentTimeMillis();
+            if (smallTime < 0 && small.get() == 100) smallTime = now - smallStarted;
+            if (bigTime < 0 && big.get() == 1) bigTime = now - bigStarted;
+            Thread.sleep(16);
+        }
+
+        Log.debug("Small: " + smallTime + " ms, big: " + bigTime + " ms, big share: " + serverSocket.getBandwidthShare(bigSocket));
+        assertEquals(100, small.get());
+        assertEquals(1, big.get());
+        assertTrue("Small messages waited for big object: " + smallTime, smallTime < bigTime / 2);
+        //200 кб при 100 кб/с - около 2 секунд
+        assertTrue("Limit exceeded: " + bigTime, bigTime > 1500);
+        assertTrue(serverSocket.getSentBytes(bigSocket) > 200 * 1024);
+        serverSocket.close();
+        bigClient.close();
+        smallClient.close();
+    }
+
+    @Override
+    public void acceptConnection(Connection conn) {
+        Socket socket = conn.accept(null);
+        if ("big".equals(((ConnectionRequest) conn.getRequest()).getName())) {
+            bigSocket = socket;
+            bigStarted = System.currentTimeMillis();
+            socket.sendStream(new ByteArrayInputStream(TestUtils.randBytes(200 * 1024)), 200 * 1024, null, null);
+        } else {
+            for (int i = 0; i < 100; i++) {
+                socket.send(new UpdateObject("Small", 2, 0, i));
+            }
+        }
+    }
+}
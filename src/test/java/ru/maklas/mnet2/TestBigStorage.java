@@ -0,0 +1,105 @@
+package ru.maklas.mnet2;
+
+import org.junit.Test;
+import ru.maklas.mnet2.objects.UpdateObject;
+import ru.maklas.mnet2.serialization.Serializer;
+
+import java.net.InetAddress;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestBigStorage {
+
+    @Test
+    public void testReassembly() {
+        byte[] source = new byte[1000];
+        for (int i = 0; i < source.length; i++) {
+            source[i] = (byte) i;
+        }
+        int partSize = 90;
+        int packs = 12; //11 по 90 и 10 в последнем
+        BigStorage storage = new BigStorage(500, packs, partSize);
+
+        //Части в обратном порядке, с повтором
+        for (int i = packs - 1; i > 0; i--) {
+            int offset = i * partSize;
+            assertFalse(storage.put(i, source, offset, Math.min(partSize, source.length - offset)));
+        }
+        assertFalse(storage.put(5, source, 5 * partSize, partSize));
+        assertTrue(storage.put(0, source, 0, partSize));
+
+        assertEquals(511, storage.getLastSeq());
+        assertEquals(source.length, storage.getLength());
+        byte[] result = new byte[storage.getLength()];
+        System.arraycopy(storage.getData(), 0, result, 0, result.length);
+        assertArrayEquals(source, result);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongPartSize() {
+        new BigStorage(0, 3, 100).put(1, new byte[200], 0, 50);
+    }
+
+    //Части с неправильным заголовком и части сверх maxBigAccumulators не подтверждаются и не занимают память
+
+    @Test
+    public void testHostileHeaders() throws Exception {
+        int oldMax = SocketImpl.maxBigAccumulators;
+        SocketImpl.maxBigAccumulators = 1;
+        Serializer serializer = TestUtils.serializerSupplier.get();
+        SocketImpl socket = new SocketImpl(InetAddress.getLocalHost(), 9025, serializer);
+        try {
+            //Объект из двух частей: 501 байт и остаток
+            StringBuilder sb = new StringBuilder();
+            byte[] data = serializer.serialize(new UpdateObject(sb.toString(), 0, 0, 0));
+            while (data.length <= 501) {
+                sb.append('a');
+                data = serializer.serialize(new UpdateObject(sb.toString(), 0, 0, 0));
+            }
+
+            receive(socket, part(0, 1, -5, 0, data));
+            receive(socket, part(0, 1, 2, 7, data));
+            receive(socket, part(0, 1, 2, -1, data));
+            assertNull(socket.queue.poll());
+
+            receive(socket, part(0, 1, 2, 0, data));
+            receive(socket, part(2, 2, 2, 0, data)); //Первый объект ещё собирается
+            receive(socket, part(3, 2, 2, 1, data));
+            assertNull(socket.queue.poll());
+
+            receive(socket, part(1, 1, 2, 1, data));
+            assertEquals(sb.length(), ((UpdateObject) socket.queue.poll()).getId().length());
+            assertNull(socket.queue.poll());
+
+            receive(socket, part(2, 2, 2, 0, data)); //Переслан
+            receive(socket, part(3, 2, 2, 1, data));
+            assertEquals(sb.length(), ((UpdateObject) socket.queue.poll()).getId().length());
+        } finally {
+            SocketImpl.maxBigAccumulators = oldMax;
+            socket.getUdp().close();
+        }
+    }
+
+    private static byte[] part(int seq, int id, int packs, int index, byte[] data){
+        int offset = Math.max(0, Math.min(index, 1)) * 501;
+        int length = Math.min(501, data.length - offset);
+        byte[] packet = new byte[PacketType.bigHeaderSize + length];
+        packet[0] = PacketType.bigRequest;
+        PacketType.putInt(packet, seq, 1);
+        PacketType.putShort(packet, id, 5);
+        PacketType.putShort(packet, packs, 7);
+        PacketType.putShort(packet, index, 9);
+        System.arraycopy(data, offset, packet, PacketType.bigHeaderSize, length);
+        return packet;
+    }
+
+    private static void receive(SocketImpl socket, byte[] packet){
+        byte[] full = new byte[512];
+        System.arraycopy(packet, 0, full, 0, packet.length);
+        socket.receiveData(full, full[0], packet.length);
+    }
+}
@@ -0,0 +1,78 @@
+package ru.maklas.mnet2;
+
+import org.junit.Test;
+import ru.maklas.mnet2.objects.ConnectionRequest;
+import ru.maklas.mnet2.objects.UpdateObject;
+
+import java.net.InetAddress;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TestBufferPool implements ServerAuthenticator {
+
+    public static final int port = 9023;
+    private static final int messages = 2000;
+
+    @Test
+    public void testSlabs() throws Exception {
+        BufferPool pool = new BufferPool(512, 100);
+        byte[] a = pool.obtain(40);
+        byte[] b = pool.obtain(60);
+        assertEquals(40, a.length);
+        assertEquals(2, pool.getAllocated());
+
+        pool.free(a);
+        pool.free(b);
+        assertSame(a, pool.obtain(40));
+        assertNotSame(b, pool.obtain(40));
+        assertSame(b, pool.obtain(60));
+
+        //Больше maxBytes не храним, длиннее maxLength - тоже
+        pool.free(new byte[60]);
+        pool.free(new byte[60]);
+        assertEquals(60, pool.getPooledBytes());
+        pool.obtain(60);
+        pool.free(new byte[1000]);
+        assertEquals(0, pool.getPooledBytes());
+    }
+
+    //Клиент отправляет сообщения по одному в кадр. Подтверждённые пакеты переиспользуются, новых почти не создаётся
+
+    @Test
+    public void testSteadyState() throws Exception {
+        ServerSocket serverSocket = TestUtils.newServerSocket(TestUtils.udp(port, 0, 0), this);
+        TestUtils.startUpdating(serverSocket, 16);
+        SocketImpl client = new SocketImpl(InetAddress.getLocalHost(), port, TestUtils.serializerSupplier.get());
+        try {
+            assertEquals(ResponseType.ACCEPTED, client.connect(new ConnectionRequest("maklas", "123", 22, true), 5000).getType());
+            SocketProcessor processor = new SocketProcessor() {
+                @Override
+                public void process(Socket sock, Object o) {
+
+                }
+            };
+            for (int i = 0; i < messages; i++) {
+                client.send(new UpdateObject("Update", 0, 0, i % 10));
+                if (i % 20 == 0) {
+                    client.update(processor);
+                    Thread.sleep(1);
+                }
+            }
+            Thread.sleep(100);
+            client.update(processor);
+            Log.debug("Buffers allocated for " + messages + " messages: " + client.bufferPool.getAllocated());
+            assertTrue(client.bufferPool.getAllocated() < messages / 10);
+        } finally {
+            serverSocket.close();
+            client.close();
+        }
+    }
+
+    @Override
+    public void acceptConnection(Connection conn) {
+        conn.accept(null);
+    }
+}
@@ -0,0 +1,61 @@
+package ru.maklas.mnet2;
+
+import org.junit.Test;
+import ru.maklas.mnet2.objects.ConnectionRequest;
+import ru.maklas.mnet2.objects.UpdateObject;
+
+import java.net.InetAddress;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestChannels implements ServerAuthenticator {
+
+    //Несколько каналов при потерях. Порядок сохраняется внутри каждого канала.
+
+    public static final int port = 9013;
+
+    @Test
+    public void testChannels() throws Exception {
+        ServerSocket serverSocket = TestUtils.newServerSocket(TestUtils.udp(port, 0, 20), this);
+        TestUtils.startUpdating(serverSocket, 16);
+
+        Socket client = new SocketImpl(InetAddress.getLocalHost(), port, TestUtils.serializerSupplier.get());
+        ServerResponse response = client.connect(new ConnectionRequest("maklas", "123", 22, true), 5000);
+        assertEquals(ResponseType.ACCEPTED, response.getType());
+
+        final int[] counters = new int[3];
+        for (int i = 0; i < 100 && (counters[0] < 1000 || counters[1] < 1000 || counters[2] < 2000); i++) {
+            client.update(new SocketProcessor() {
+                @Override
+                public void process(Socket sock, Object o) {
+                    UpdateObject update = (UpdateObject) o;
+                    int channel = (int) update.getX();
+                    assertEquals(counters[channel]++, update.getForce());
+                }
+            });
+            Thread.sleep(50);
+        }
+
+        assertEquals(1000, counters[0]);
+        assertEquals(1000, counters[1]);
+        assertEquals(2000, counters[2]);
+        serverSocket.close();
+        client.close();
+    }
+
+    @Override
+    public void acceptConnection(Connection conn) {
+        Socket socket = conn.accept(null);
+        for (int i = 0; i < 1000; i++) {
+            socket.send(new UpdateObject("Default", 0, 0, i));
+            socket.send(new UpdateObject("First", 1, 0, i), 1);
+            if (i % 10 == 0) {
+                NetBatch batch = new NetBatch();
+                for (int j = 0; j < 20; j++) {
+                    batch.add(new UpdateObject("Second", 2, 0, i * 2 + j));
+                }
+                socket.send(batch, 2);
+            }
+        }
+    }
+}
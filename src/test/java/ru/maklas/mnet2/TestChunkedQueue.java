@@ -0,0 +1,134 @@
+package ru.maklas.mnet2;
+
+import org.junit.Test;
+import ru.maklas.mnet2.objects.UpdateObject;
+import ru.maklas.mnet2.serialization.Serializer;
+
+import java.net.InetAddress;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestChunkedQueue {
+
+    //Несколько производителей, один потребитель. Порядок каждого производителя сохраняется, ничего не теряется
+
+    @Test
+    public void testProducers() throws Exception {
+        final ChunkedQueue<int[]> queue = new ChunkedQueue<int[]>(0);
+        final int producers = 4;
+        final int perProducer = 100000;
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            threads[p] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perProducer; i++) {
+                        queue.put(new int[]{producer, i});
+                    }
+                }
+            });
+            threads[p].start();
+        }
+
+        int[] next = new int[producers];
+        int received = 0;
+        long deadline = System.currentTimeMillis() + 10000;
+        while (received < producers * perProducer && System.currentTimeMillis() < deadline) {
+            int[] item = queue.poll();
+            if (item == null) continue;
+            assertEquals(next[item[0]]++, item[1]);
+            received++;
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(producers * perProducer, received);
+        assertNull(queue.poll());
+        assertEquals(0, queue.size());
+        assertTrue(queue.getHighWaterMark() > 0);
+        assertEquals(0, queue.getDropped());
+    }
+
+    @Test
+    public void testLimit() throws Exception {
+        ChunkedQueue<Integer> queue = new ChunkedQueue<Integer>(300);
+        for (int i = 0; i < 300; i++) {
+            assertTrue(queue.put(i));
+        }
+        assertFalse(queue.put(300));
+        queue.putForced(301);
+        assertEquals(301, queue.size());
+        assertEquals(301, queue.getHighWaterMark());
+        assertEquals(1, queue.getDropped());
+
+        for (int i = 0; i < 300; i++) {
+            assertEquals(i, (int) queue.poll());
+        }
+        assertEquals(301, (int) queue.poll());
+        assertNull(queue.poll());
+        assertEquals(301, queue.getHighWaterMark());
+    }
+
+    //Переполненный сокет отключается, а не теряет надёжные данные молча
+    @Test
+    public void testOverflowDisconnects() throws Exception {
+        int oldSize = SocketImpl.receivingQueueSize;
+        SocketImpl.receivingQueueSize = 10;
+        Serializer serializer = TestUtils.serializerSupplier.get();
+        SocketImpl socket = new SocketImpl(InetAddress.getLocalHost(), 9021, serializer);
+        SocketImpl.receivingQueueSize = oldSize;
+        try {
+            for (int i = 0; i < 20; i++) {
+                byte[] packet = serializer.serialize(new UpdateObject("Reliable", 0, 0, i), 5);
+                packet[0] = PacketType.reliableRequest;
+                PacketType.putInt(packet, i, 1);
+                socket.receiveData(packet, PacketType.reliableRequest, packet.length);
+            }
+            for (int i = 0; i < 10; i++) {
+                assertEquals(i, ((UpdateObject) socket.queue.poll()).getForce());
+            }
+            assertEquals(DCType.QUEUE_OVERFLOW, ((SocketImpl.DisconnectionPacket) socket.queue.poll()).message);
+            assertNull(socket.queue.poll());
+            assertEquals(10, socket.getReceivingQueueDropped());
+            assertEquals(11, socket.getReceivingQueueHighWaterMark());
+        } finally {
+            socket.getUdp().close();
+        }
+    }
+
+    //Ненадёжные и sequenced объекты при переполнении только теряются, даже если политика DISCONNECT
+    @Test
+    public void testUnreliableOverflowDrops() throws Exception {
+        int oldSize = SocketImpl.receivingQueueSize;
+        SocketImpl.receivingQueueSize = 10;
+        Serializer serializer = TestUtils.serializerSupplier.get();
+        SocketImpl socket = new SocketImpl(InetAddress.getLocalHost(), 9021, serializer);
+        SocketImpl.receivingQueueSize = oldSize;
+        try {
+            for (int i = 0; i < 20; i++) {
+                byte[] packet = serializer.serialize(new UpdateObject("Unreliable", 0, 0, i), 1);
+                packet[0] = PacketType.unreliable;
+                socket.receiveData(packet, PacketType.unreliable, packet.length);
+            }
+            for (int i = 0; i < 20; i++) {
+                byte[] packet = serializer.serialize(new UpdateObject("Sequenced", 0, 0, i), 5);
+                packet[0] = PacketType.sequenced;
+                PacketType.putInt(packet, i, 1);
+                socket.receiveData(packet, PacketType.sequenced, packet.length);
+            }
+            for (int i = 0; i < 10; i++) {
+                assertEquals(i, ((UpdateObject) socket.queue.poll()).getForce());
+            }
+            assertNull(socket.queue.poll());
+            assertEquals(30, socket.getReceivingQueueDropped());
+            assertEquals(10, socket.getReceivingQueueHighWaterMark());
+        } finally {
+            socket.getUdp().close();
+        }
+    }
+}
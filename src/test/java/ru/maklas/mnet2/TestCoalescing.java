@@ -0,0 +1,59 @@
+package ru.maklas.mnet2;
+
+import org.junit.Test;
+import ru.maklas.mnet2.objects.ConnectionRequest;
+import ru.maklas.mnet2.objects.UpdateObject;
+
+import java.net.InetAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestCoalescing implements ServerAuthenticator {
+
+    //Отложенные send() перемешаны с батчами и сохраняют порядок при потерях
+
+    public static final int port = 9011;
+
+    @Test
+    public void testCoalescing() throws Exception {
+        ServerSocket serverSocket = TestUtils.newServerSocket(TestUtils.udp(port, 0, 10), this);
+        TestUtils.startUpdating(serverSocket, 16);
+
+        Socket client = new SocketImpl(InetAddress.getLocalHost(), port, TestUtils.serializerSupplier.get());
+        ServerResponse response = client.connect(new ConnectionRequest("maklas", "123", 22, true), 5000);
+        assertEquals(ResponseType.ACCEPTED, response.getType());
+
+        final AtomicInteger counter = new AtomicInteger(0);
+        for (int i = 0; i < 60 && counter.get() < 3000; i++) {
+            client.update(new SocketProcessor() {
+                @Override
+                public void process(Socket sock, Object o) {
+                    assertEquals(counter.getAndIncrement(), ((UpdateObject) o).getForce());
+                }
+            });
+            Thread.sleep(50);
+        }
+
+        assertEquals(3000, counter.get());
+        serverSocket.close();
+        client.close();
+    }
+
+    @Override
+    public void acceptConnection(Connection conn) {
+        Socket socket = conn.accept(null);
+        socket.setCoalescing(true);
+        for (int i = 0; i < 1000; i++) {
+            socket.send(new UpdateObject("Coalesced", 1, 2, i));
+        }
+        NetBatch batch = new NetBatch();
+        for (int i = 1000; i < 2000; i++) {
+            batch.add(new UpdateObject("Batched", 3, 4, i));
+        }
+        socket.send(batch);
+        for (int i = 2000; i < 3000; i++) {
+            socket.send(new UpdateObject("Coalesced", 5, 6, i));
+        }
+    }
+}
@@ -1,9 +1,11 @@
 package ru.maklas.mnet2;
 
 import com.badlogic.gdx.math.MathUtils;
+import org.junit.Assert;
 import org.junit.Test;
 import ru.maklas.mnet2.congestion.CongestionManager;
 import ru.maklas.mnet2.congestion.DefaultCongestionManager;
+import ru.maklas.mnet2.congestion.RttCongestionManager;
 
 public class TestCongestion {
 
@@ -76,6 +78,38 @@ public class TestCongestion {
     }
 
 
+    @Test
+    public void testRtt() throws Exception {
+        RttCongestionManager cm = new RttCongestionManager(16, 2000);
+        long currentDelay = 500;
+
+        for (int i = 0; i < 200; i++) {
+            currentDelay = cm.calculateDelay(rpNanos(100 + MathUtils.random(-5, 5), 0), currentTime, currentDelay);
+        }
+        Assert.assertEquals(100, cm.getSmoothedRtt(), 5);
+        Assert.assertTrue(currentDelay >= 100 && currentDelay < 140);
+
+        //Karn: ответ на пересланный пакет не учитывается
+        long delay = currentDelay;
+        Assert.assertEquals(delay, cm.calculateDelay(rpNanos(5, 1), currentTime, delay));
+
+        //Экспоненциальный откат, но не больше maxDelay
+        Assert.assertEquals(delay * 2, cm.onTimeout(delay));
+        Assert.assertEquals(2000, cm.onTimeout(1500));
+
+        //Резкий рост пинга учитывается сразу
+        long before = currentDelay;
+        currentDelay = cm.calculateDelay(rpNanos(400, 0), currentTime, currentDelay);
+        Assert.assertTrue(currentDelay > before * 2);
+    }
+
+    private static SocketImpl.ResendPacket rpNanos(double pingMillis, int resends){
+        SocketImpl.ResendPacket rp = new SocketImpl.ResendPacket();
+        rp.sendTimeNanos = System.nanoTime() - (long) (pingMillis * 1000000);
+        rp.resends = resends;
+        return rp;
+    }
+
     private long calculateDelay(CongestionManager cm, SocketImpl.ResendPacket rp, long currentDelay){
         long newDelay = cm.calculateDelay(rp, currentTime, currentDelay);
         if (currentDelay != newDelay){
@@ -0,0 +1,167 @@
+package ru.maklas.mnet2;
+
+import org.junit.Test;
+import ru.maklas.mnet2.congestion.AimdCongestionWindow;
+import ru.maklas.mnet2.congestion.Pacer;
+import ru.maklas.mnet2.objects.ConnectionRequest;
+import ru.maklas.mnet2.objects.UpdateObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.net.InetAddress;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestCongestionWindow implements ServerAuthenticator {
+
+    public static final int port = 9016;
+
+    private final byte[] streamData = new byte[10 * 1000 + 7];
+    private volatile SocketImpl serverSide;
+    private volatile CheckedWindow window;
+
+    @Test
+    public void testAimd() throws Exception {
+        AimdCongestionWindow cw = new AimdCongestionWindow(500, 1000, 100000);
+        assertEquals(5000, cw.getWindow());
+        assertEquals(0, cw.getPacingRate());
+
+        //Slow start: окно растёт на подтверждённые байты
+        cw.onAck(500, 100 * 1000000L);
+        assertEquals(5500, cw.getWindow());
+        assertEquals(100, cw.getSmoothedRtt(), 0.001);
+        assertEquals(5500 * 10 * 2, cw.getPacingRate());
+
+        cw.onLoss();
+        assertEquals(2750, cw.getWindow());
+
+        //После потери - примерно один пакет за окно
+        for (int i = 0; i < 2750 / 500; i++) {
+            cw.onAck(500, -1);
+        }
+        assertTrue(cw.getWindow() > 2750 && cw.getWindow() <= 3250);
+
+        for (int i = 0; i < 10; i++) {
+            cw.onLoss();
+        }
+        assertEquals(1000, cw.getWindow());
+    }
+
+    @Test
+    public void testPacer() throws Exception {
+        Pacer pacer = new Pacer(10);
+        long time = 0;
+        long rate = 100000; //1000 байт за 10 мс
+
+        assertTrue(pacer.tryConsume(600, time, rate));
+        assertTrue(pacer.tryConsume(600, time, rate));
+        assertFalse(pacer.tryConsume(600, time, rate));
+
+        time += 1000000; //+100 байт
+        assertFalse(pacer.tryConsume(600, time, rate));
+        time += 2000000;
+        assertTrue(pacer.tryConsume(600, time, rate));
+
+        //Простой не накапливает больше чем maxBurst
+        time += 1000000000;
+        assertTrue(pacer.tryConsume(600, time, rate));
+        assertTrue(pacer.tryConsume(600, time, rate));
+        assertFalse(pacer.tryConsume(600, time, rate));
+
+        assertTrue(pacer.tryConsume(600, time, 0));
+    }
+
+    @Test
+    public void testWindowedSending() throws Exception {
+        ServerSocket serverSocket = TestUtils.newServerSocket(TestUtils.udp(port, 0, 20), this);
+        TestUtils.startUpdating(serverSocket, 16);
+
+        Socket client = new SocketImpl(InetAddress.getLocalHost(), port, TestUtils.serializerSupplier.get());
+        ServerResponse response = client.connect(new ConnectionRequest("maklas", "123", 22, true), 5000);
+        assertEquals(ResponseType.ACCEPTED, response.getType());
+
+        final AtomicInteger received = new AtomicInteger(0);
+        final AtomicInteger finished = new AtomicInteger(0);
+        final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for (int i = 0; i < 400 && (received.get() < 1000 || finished.get() == 0); i++) {
+            client.update(new SocketProcessor() {
+                @Override
+                public void process(Socket sock, Object o) {
+                    if (o instanceof IncomingStream) {
+                        ((IncomingStream) o).accept(stream, new StreamListener() {
+                            @Override
+                            public void progress(Socket socket, long transferred, long total) {
+                            }
+
+                            @Override
+                            public void finished(Socket socket, boolean success) {
+                                assertTrue(success);
+                                finished.incrementAndGet();
+                            }
+                        });
+                    } else {
+                        assertEquals(received.getAndIncrement(), ((UpdateObject) o).getForce());
+                    }
+                }
+            });
+            //Окно могло уменьшиться после потери, пока отправленное по старому окну ещё в полёте.
+            //Потоки отправки проверяют окно независимо, поэтому допускается ещё один пакет
+            SocketImpl serverSide = this.serverSide;
+            if (serverSide != null) {
+                int inFlight = serverSide.getBytesInFlight();
+                assertTrue(inFlight + " > " + window.allowed(), inFlight <= window.allowed() + 512);
+                window.resetLoss(inFlight);
+            }
+            Thread.sleep(50);
+        }
+
+        assertEquals(1000, received.get());
+        assertEquals(1, finished.get());
+        assertArrayEquals(streamData, stream.toByteArray());
+        serverSocket.close();
+        client.close();
+    }
+
+    @Override
+    public void acceptConnection(Connection conn) {
+        Socket socket = conn.accept(null);
+        window = new CheckedWindow();
+        socket.setCongestionWindow(window);
+        serverSide = (SocketImpl) socket;
+        new Random(3).nextBytes(streamData);
+        socket.sendStream(new ByteArrayInputStream(streamData), streamData.length, null, null);
+        for (int i = 0; i < 1000; i++) {
+            socket.send(new UpdateObject("Windowed", 1, 0, i));
+        }
+    }
+
+    /**
+     * Remembers the largest window before losses, since bytes sent under it can still be in flight
+     */
+    private static class CheckedWindow extends AimdCongestionWindow {
+        private int lossWindow;
+
+        CheckedWindow() {
+            super(512, 1024, 4096);
+        }
+
+        @Override
+        public synchronized void onLoss() {
+            lossWindow = Math.max(lossWindow, getWindow());
+            super.onLoss();
+        }
+
+        synchronized int allowed() {
+            return Math.max(lossWindow, getWindow());
+        }
+
+        synchronized void resetLoss(int inFlight) {
+            if (inFlight <= getWindow()) lossWindow = 0;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package ru.maklas.mnet2;
+
+import org.junit.Test;
+import ru.maklas.mnet2.congestion.AimdCongestionWindow;
+import ru.maklas.mnet2.objects.ByteSerializer;
+import ru.maklas.mnet2.objects.ConnectionRequest;
+import ru.maklas.mnet2.objects.UpdateObject;
+import ru.maklas.mnet2.serialization.Serializer;
+
+import java.net.InetAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestExpiring implements ServerAuthenticator {
+
+    public static final int port = 9019;
+    public static final int noLossPort = 9027;
+    public static final int poolPort = 9035;
+
+    //Просроченный пакет возвращается в пул, когда его заменяет пропуск, а пропуск - когда его подтвердят
+    @Test
+    public void testExpiredBuffersPooled() throws Exception {
+        ServerSocket serverSocket = TestUtils.newServerSocket(TestUtils.udp(poolPort, 0, 0), this);
+        RecordingUDPSocket udpA = new RecordingUDPSocket();
+        RecordingUDPSocket udpB = new RecordingUDPSocket();
+        SocketImpl a = TestUtils.subSocket(serverSocket, udpA, new ByteSerializer());
+        SocketImpl b = TestUtils.subSocket(serverSocket, udpB, new ByteSerializer());
+        try {
+            a.sendExpiring(new byte[100], 10);
+            udpA.take(); //Потерян
+            assertEquals(0, a.bufferPool.getPooledBytes());
+
+            Thread.sleep(20);
+            a.checkResendPingAndInactivity(System.currentTimeMillis());
+            byte[] skip = udpA.take();
+            assertEquals(PacketType.expired, skip[0]);
+            assertEquals(105, a.bufferPool.getPooledBytes());
+
+            b.receiveData(skip, skip[0], skip.length);
+            b.flushAcks();
+            byte[] ack = udpB.take();
+            a.receiveData(ack, ack[0], ack.length);
+            assertEquals(0, a.getBytesInFlight());
+            assertEquals(105 + 5, a.bufferPool.getPooledBytes());
+        } finally {
+            serverSocket.close();
+            udpA.close();
+            udpB.close();
+        }
+    }
+
+    //Получатель пропускает seq просроченного пакета и отдаёт следующие за ним
+    @Test
+    public void testSkip() throws Exception {
+        Serializer serializer = TestUtils.serializerSupplier.get();
+        SocketImpl socket = new SocketImpl(InetAddress.getLocalHost(), port, serializer);
+        try {
+            receive(socket, serializer, 0);
+            receive(socket, serializer, 2);
+            receive(socket, serializer, 4);
+            assertEquals(0, ((UpdateObject) socket.queue.poll()).getForce());
+            assertNull(socket.queue.poll());
+
+            byte[] skip = new byte[5];
+            skip[0] = PacketType.expired;
+            PacketType.putInt(skip, 1, 1);
+            socket.receiveData(skip, PacketType.expired, skip.length);
+            assertEquals(2, ((UpdateObject) socket.queue.poll()).getForce());
+            assertNull(socket.queue.poll());
+
+            //Пропуск пришёл раньше просроченного пакета
+            PacketType.putInt(skip, 3, 1);
+            socket.receiveData(skip, PacketType.expired, skip.length);
+            receive(socket, serializer, 3);
+            assertEquals(4, ((UpdateObject) socket.queue.poll()).getForce());
+            assertNull(socket.queue.poll());
+        } finally {
+            socket.getUdp().close();
+        }
+    }
+
+    private static void receive(SocketImpl socket, Serializer serializer, int seq){
+        byte[] packet = serializer.serialize(new UpdateObject("Reliable", 0, 0, seq), 5);
+        packet[0] = PacketType.reliableRequest;
+        PacketType.putInt(packet, seq, 1);
+        socket.receiveData(packet, PacketType.reliableRequest, packet.length);
+    }
+
+    //При потерях просроченные пакеты не пересылаются, а остальные приходят по порядку и не ждут их
+    @Test
+    public void testExpiring() throws Exception {
+        ServerSocket serverSocket = TestUtils.newServerSocket(TestUtils.udp(port, 0, 30), this);
+        TestUtils.startUpdating(serverSocket, 16);
+
+        Socket client = new SocketImpl(InetAddress.getLocalHost(), port, TestUtils.serializerSupplier.get());
+        assertEquals(ResponseType.ACCEPTED, client.connect(new ConnectionRequest("maklas", "123", 22, true), 5000).getType());
+
+        final AtomicInteger normal = new AtomicInteger();
+        final AtomicInteger expiring = new AtomicInteger();
+        final AtomicInteger lastExpiring = new AtomicInteger(-1);
+        for (int i = 0; i < 200 && normal.get() < 500; i++) {
+            client.update(new SocketProcessor() {
+                @Override
+                public void process(Socket sock, Object o) {
+                    UpdateObject update = (UpdateObject) o;
+                    if (update.getX() == 1) {
+                        assertEquals(normal.getAndIncrement(), update.getForce());
+                    } else {
+                        assertTrue(update.getForce() > lastExpiring.get());
+                        lastExpiring.set(update.getForce());
+                        expiring.incrementAndGet();
+                    }
+                }
+            });
+            Thread.sleep(50);
+        }
+
+        Log.debug("Expiring delivered: " + expiring.get() + " of 500");
+        assertEquals(500, normal.get());
+        assertTrue(expiring.get() > 0 && expiring.get() < 500);
+        serverSocket.close();
+        client.close();
+    }
+
+    //Просрочка без потерь - не потеря: окно не уменьшается, а пропуск не считается пересылкой
+
+    @Test
+    public void testExpiryIsNotLoss() throws Exception {
+        ServerSocket serverSocket = TestUtils.newServerSocket(TestUtils.udp(noLossPort, 100, 0), new ServerAuthenticator() {
+            @Override
+            public void acceptConnection(Connection conn) {
+                conn.accept(null);
+            }
+        });
+        TestUtils.startUpdating(serverSocket, 16);
+        SocketImpl client = new SocketImpl(InetAddress.getLocalHost(), noLossPort, 512, 7000, 10000, 2000, TestUtils.serializerSupplier.get());
+        try {
+            assertEquals(ResponseType.ACCEPTED, client.connect(new ConnectionRequest("maklas", "123", 22, true), 5000).getType());
+            AimdCongestionWindow cw = new AimdCongestionWindow(512, 1024, 1024 * 1024);
+            int window = cw.getWindow();
+            client.setCongestionWindow(cw);
+            for (int i = 0; i < 5; i++) {
+                client.sendExpiring(new UpdateObject("Expiring", 2, 0, i), 10);
+            }
+            SocketProcessor processor = new SocketProcessor() {
+                @Override
+                public void process(Socket sock, Object o) {
+
+                }
+            };
+            for (int i = 0; i < 40; i++) {
+                client.update(processor);
+                Thread.sleep(16);
+            }
+            assertTrue(cw.getWindow() >= window);
+        } finally {
+            serverSocket.close();
+            client.close();
+        }
+    }
+
+    @Override
+    public void acceptConnection(Connection conn) {
+        Socket socket = conn.accept(null);
+        for (int i = 0; i < 500; i++) {
+            socket.send(new UpdateObject("Normal", 1, 0, i));
+            socket.sendExpiring(new UpdateObject("Expiring", 2, 0, i), 50);
+        }
+    }
+}
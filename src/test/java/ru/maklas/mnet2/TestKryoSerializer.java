@@ -0,0 +1,88 @@
+package ru.maklas.mnet2;
+
+import com.esotericsoftware.kryo.KryoException;
+import org.junit.Test;
+import ru.maklas.mnet2.objects.ConnectionRequest;
+import ru.maklas.mnet2.objects.UpdateObject;
+import ru.maklas.mnet2.serialization.Serializer;
+
+import java.net.InetAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestKryoSerializer {
+
+    public static final int port = 9024;
+
+    @Test
+    public void testSerializeIntoBuffer() throws Exception {
+        Serializer serializer = TestUtils.serializerSupplier.get();
+        UpdateObject update = new UpdateObject("Update", 1, 2, 3);
+        byte[] expected = serializer.serialize(update);
+
+        byte[] buffer = new byte[64];
+        buffer[4] = 42;
+        int size = serializer.serialize(update, buffer, 5);
+        assertEquals(expected.length, size);
+        assertEquals(42, buffer[4]);
+        byte[] written = new byte[size];
+        System.arraycopy(buffer, 5, written, 0, size);
+        assertArrayEquals(expected, written);
+        assertEquals(3, ((UpdateObject) serializer.deserialize(buffer, 5, size)).getForce());
+
+        //Не помещается - KryoException, за границу буфера ничего не пишется, а сериализатор продолжает работать
+        byte[] small = new byte[expected.length + 4];
+        try {
+            serializer.serialize(update, small, 5);
+            fail();
+        } catch (KryoException e) {
+            assertTrue(e.getMessage().startsWith("Buffer overflow"));
+        }
+        assertEquals(expected.length, serializer.serialize(update, buffer, 0));
+    }
+
+    //Слишком большой ненадёжный объект - исключение, а не обрезанный пакет. Сокет продолжает работать
+
+    @Test
+    public void testOversizedUnreliable() throws Exception {
+        final AtomicInteger received = new AtomicInteger();
+        ServerSocket serverSocket = TestUtils.newServerSocket(TestUtils.udp(port, 0, 0), new ServerAuthenticator() {
+            @Override
+            public void acceptConnection(Connection conn) {
+                conn.accept(null);
+            }
+        });
+        TestUtils.startUpdating(serverSocket, 16, new SocketProcessor() {
+            @Override
+            public void process(Socket sock, Object o) {
+                received.incrementAndGet();
+            }
+        });
+        Socket client = new SocketImpl(InetAddress.getLocalHost(), port, TestUtils.serializerSupplier.get());
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 600; i++) {
+            sb.append('a');
+        }
+        try {
+            assertEquals(ResponseType.ACCEPTED, client.connect(new ConnectionRequest("maklas", "123", 22, true), 5000).getType());
+            try {
+                client.sendUnreliable(new UpdateObject(sb.toString(), 0, 0, 0));
+                fail();
+            } catch (KryoException e) {
+                Log.debug(e.getMessage());
+            }
+            client.sendUnreliable(new UpdateObject("Update", 0, 0, 0));
+            for (int i = 0; i < 50 && received.get() == 0; i++) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, received.get());
+        } finally {
+            serverSocket.close();
+            client.close();
+        }
+    }
+}
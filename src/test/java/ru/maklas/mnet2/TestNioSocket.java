@@ -0,0 +1,116 @@
+package ru.maklas.mnet2;
+
+import org.junit.Test;
+import ru.maklas.mnet2.objects.ConnectionRequest;
+import ru.maklas.mnet2.objects.ConnectionResponse;
+import ru.maklas.mnet2.objects.UpdateObject;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestNioSocket implements ServerAuthenticator {
+
+    //Тест NioUDPSocket на обоих концах, с потерями.
+
+    public static final int port = 9007;
+    public static final int directPort = 9030;
+
+    @Test
+    public void testNioSockets() throws Exception {
+        ServerSocket serverSocket = TestUtils.newServerSocket(new PacketLossUDPSocket(new NioUDPSocket(port), 20, 20), this);
+        TestUtils.startUpdating(serverSocket, 16);
+
+        Socket client = new SocketImpl(new NioUDPSocket(), InetAddress.getLocalHost(), port, 512, 7000, 2500, 100, TestUtils.serializerSupplier.get());
+
+        ServerResponse response = client.connect(new ConnectionRequest("maklas", "123", 22, true), 5000);
+        Log.trace(response.toString());
+        assertEquals(ResponseType.ACCEPTED, response.getType());
+        assertEquals("Welcome, maklas!", ((ConnectionResponse) response.getResponse()).getWelcome());
+
+        final AtomicInteger counter = new AtomicInteger(0);
+        for (int i = 0; i < 60; i++) {
+            client.update(new SocketProcessor() {
+                @Override
+                public void process(Socket sock, Object o) {
+                    assertEquals(counter.getAndIncrement(), ((UpdateObject) o).getForce());
+                }
+            });
+            Thread.sleep(50);
+        }
+
+        assertEquals(1000, counter.get());
+
+        client.close();
+        serverSocket.close();
+    }
+
+    //Сокеты отдают NioUDPSocket только direct буферы, чтобы DatagramChannel не копировал их во временный
+    @Test
+    public void testDirectBuffers() throws Exception {
+        DirectCheckingSocket serverUdp = new DirectCheckingSocket(directPort);
+        DirectCheckingSocket clientUdp = new DirectCheckingSocket(0);
+        ServerSocket serverSocket = TestUtils.newServerSocket(serverUdp, this);
+        TestUtils.startUpdating(serverSocket, 16);
+        Socket client = new SocketImpl(clientUdp, InetAddress.getLocalHost(), directPort, 512, 7000, 2500, 100, TestUtils.serializerSupplier.get());
+        try {
+            assertEquals(ResponseType.ACCEPTED, client.connect(new ConnectionRequest("maklas", "123", 22, true), 5000).getType());
+            final AtomicInteger counter = new AtomicInteger(0);
+            for (int i = 0; i < 60 && counter.get() < 1000; i++) {
+                client.update(new SocketProcessor() {
+                    @Override
+                    public void process(Socket sock, Object o) {
+                        counter.getAndIncrement();
+                    }
+                });
+                client.sendUnreliable(new UpdateObject("Unreliable", 0, 0, i));
+                Thread.sleep(50);
+            }
+            assertEquals(1000, counter.get());
+            assertTrue(serverUdp.direct.get() > 1000 && clientUdp.direct.get() > 100);
+            assertEquals(0, serverUdp.heap.get());
+            assertEquals(0, clientUdp.heap.get());
+        } finally {
+            client.close();
+            serverSocket.close();
+        }
+    }
+
+    private static class DirectCheckingSocket extends NioUDPSocket {
+        final AtomicInteger direct = new AtomicInteger();
+        final AtomicInteger heap = new AtomicInteger();
+
+        DirectCheckingSocket(int port) throws IOException {
+            super(port);
+        }
+
+        @Override
+        public void send(ByteBuffer buffer, InetSocketAddress address) throws IOException {
+            (buffer.isDirect() ? direct : heap).incrementAndGet();
+            super.send(buffer, address);
+        }
+
+        @Override
+        public InetSocketAddress receive(ByteBuffer buffer) throws IOException {
+            (buffer.isDirect() ? direct : heap).incrementAndGet();
+            return super.receive(buffer);
+        }
+    }
+
+    @Override
+    public void acceptConnection(Connection conn) {
+        if ((conn.getRequest() instanceof ConnectionRequest)
+                && "123".equals(((ConnectionRequest) conn.getRequest()).getPassword())){
+            Socket socket = conn.accept(new ConnectionResponse("Welcome, " + ((ConnectionRequest) conn.getRequest()).getName() + "!"));
+
+            for (int i = 0; i < 1000; i++) {
+                socket.send(new UpdateObject("Big Random String", 100, 200, i));
+            }
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package ru.maklas.mnet2;
+
+import org.junit.Test;
+import ru.maklas.mnet2.objects.ByteSerializer;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestPiggybackAcks implements ServerAuthenticator {
+
+    //Два сокета обмениваются пакетами вручную, без сети.
+    //Надёжный пакет должен унести ожидающие подтверждения в конце, получатель - отрезать их и освободить seq.
+
+    public static final int port = 9031;
+    public static final int ticksPort = 9033;
+    private static final int ticks = 30;
+    private static final int tickTime = SocketImpl.maxAckDelay + 5;
+
+    @Test
+    public void testPiggyback() throws Exception {
+        ServerSocket serverSocket = TestUtils.newServerSocket(TestUtils.udp(port, 0, 0), this);
+        RecordingUDPSocket udpA = new RecordingUDPSocket();
+        RecordingUDPSocket udpB = new RecordingUDPSocket();
+        SocketImpl a = TestUtils.subSocket(serverSocket, udpA, new ByteSerializer());
+        SocketImpl b = TestUtils.subSocket(serverSocket, udpB, new ByteSerializer());
+        try {
+            //b -> a. У b нечего подтверждать, пакет уходит как есть
+            byte[] first = bytes(20, 1);
+            b.send(first);
+            byte[] packet = udpB.take();
+            assertEquals(PacketType.reliableRequest, packet[0]);
+            assertEquals(5 + first.length, packet.length);
+            assertEquals(5 + first.length, b.getBytesInFlight());
+            a.receiveData(packet, packet[0], packet.length);
+            assertArrayEquals(first, (byte[]) a.queue.poll());
+
+            //a -> b. Подтверждение seq 0 едет в конце пакета
+            byte[] second = bytes(30, 2);
+            a.send(second);
+            packet = udpA.take();
+            assertEquals(PacketType.reliableRequest | PacketType.ackFlag, packet[0]);
+            assertEquals(5 + second.length + PacketType.ackTrailerSize, packet.length);
+            assertEquals(0, PacketType.extractInt(packet, 5 + second.length));
+            assertEquals(0L, PacketType.extractLong(packet, 9 + second.length));
+            a.flushAcks();
+            assertTrue(udpA.isEmpty()); //Подтверждение уже отправлено
+
+            b.receiveData(packet, packet[0], packet.length);
+            assertArrayEquals(second, (byte[]) b.queue.poll()); //Хвост отрезан
+            assertEquals(0, b.getBytesInFlight());
+
+            //Пакет, которому не хватает места под хвост, уходит без него, а подтверждение - отдельно
+            byte[] third = bytes(20, 3);
+            b.send(third);
+            packet = udpB.take();
+            a.receiveData(packet, packet[0], packet.length);
+            assertArrayEquals(third, (byte[]) a.queue.poll());
+
+            byte[] big = bytes(512 - 5 - PacketType.ackTrailerSize + 1, 4);
+            a.send(big);
+            packet = udpA.take();
+            assertEquals(PacketType.reliableRequest, packet[0]);
+            assertEquals(5 + big.length, packet.length);
+            b.receiveData(packet, packet[0], packet.length);
+            assertArrayEquals(big, (byte[]) b.queue.poll());
+            assertTrue(b.getBytesInFlight() > 0);
+
+            long now = System.currentTimeMillis();
+            a.flushAcks(now);
+            assertTrue(udpA.isEmpty()); //Ещё ждёт исходящий пакет
+            a.flushAcks(now + SocketImpl.maxAckDelay);
+            packet = udpA.take();
+            assertEquals(PacketType.selectiveAck, packet[0]);
+            assertEquals(1, PacketType.extractInt(packet, 1));
+            b.receiveData(packet, packet[0], packet.length);
+            assertEquals(0, b.getBytesInFlight());
+        } finally {
+            serverSocket.close();
+            udpA.close();
+            udpB.close();
+        }
+    }
+
+    //Обе стороны каждый тик разбирают входящие пакеты, что-то отправляют и вызывают update().
+    //Тики реже maxAckDelay, но подтверждения всё равно уезжают на исходящих пакетах, отдельных не бывает
+    @Test
+    public void testTicks() throws Exception {
+        ServerSocket serverSocket = TestUtils.newServerSocket(TestUtils.udp(ticksPort, 0, 0), this);
+        RecordingUDPSocket udpA = new RecordingUDPSocket();
+        RecordingUDPSocket udpB = new RecordingUDPSocket();
+        SocketImpl a = TestUtils.subSocket(serverSocket, udpA, new ByteSerializer());
+        SocketImpl b = TestUtils.subSocket(serverSocket, udpB, new ByteSerializer());
+        Set<Byte> piggybacked = new HashSet<Byte>();
+        try {
+            for (int i = 0; i < ticks; i++) {
+                tick(a, udpB, i, piggybacked);
+                tick(b, udpA, i, piggybacked);
+                Thread.sleep(tickTime);
+            }
+            assertTrue(piggybacked.contains(PacketType.reliableRequest));
+            assertTrue(piggybacked.contains(PacketType.batch));
+            assertTrue(piggybacked.contains(PacketType.unreliable));
+        } finally {
+            serverSocket.close();
+            udpA.close();
+            udpB.close();
+        }
+    }
+
+    private static void tick(SocketImpl socket, RecordingUDPSocket peer, int tick, Set<Byte> piggybacked) {
+        for (byte[] packet : peer.takeAll()) {
+            byte type = packet[0];
+            assertTrue(PacketType.toString(type), type != PacketType.selectiveAck && type != PacketType.reliableAck);
+            if ((type & PacketType.ackFlag) != 0) {
+                piggybacked.add((byte) (type & ~PacketType.ackFlag));
+            }
+            socket.receiveData(packet, type, packet.length);
+        }
+        while (socket.queue.poll() != null) ;
+        switch (tick % 3) {
+            case 0:
+                socket.send(bytes(20, tick));
+                break;
+            case 1:
+                NetBatch batch = new NetBatch();
+                batch.add(bytes(20, tick));
+                batch.add(bytes(30, tick));
+                socket.send(batch);
+                break;
+            default:
+                socket.sendUnreliable(bytes(20, tick));
+        }
+        socket.checkResendPingAndInactivity(System.currentTimeMillis());
+    }
+
+    private static byte[] bytes(int length, int value) {
+        byte[] bytes = new byte[length];
+        Arrays.fill(bytes, (byte) value);
+        return bytes;
+    }
+
+    @Override
+    public void acceptConnection(Connection conn) {
+        conn.reject(null);
+    }
+}
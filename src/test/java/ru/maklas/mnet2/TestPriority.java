@@ -0,0 +1,141 @@
+package ru.maklas.mnet2;
+
+import org.junit.Test;
+import ru.maklas.mnet2.congestion.AimdCongestionWindow;
+import ru.maklas.mnet2.objects.ConnectionRequest;
+import ru.maklas.mnet2.objects.MySerializer;
+import ru.maklas.mnet2.objects.UpdateObject;
+
+import java.net.InetAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestPriority implements ServerAuthenticator {
+
+    //Сервер ограничен 30 кб/с и отправляет 200 обычных сообщений по 250 байт.
+    //Отправленные после них важные должны прийти первыми, а неважные ненадёжные - отброшены.
+
+    public static final int port = 9018;
+    public static final int bigPort = 9026;
+    private static final int normal = 1, highReliable = 2, lowUnreliable = 3, highUnreliable = 4;
+
+    @Test
+    public void testPriority() throws Exception {
+        ServerSocket serverSocket = TestUtils.newServerSocket(TestUtils.udp(port, 0, 0), this);
+        serverSocket.setBandwidthLimit(30 * 1024);
+        TestUtils.startUpdating(serverSocket, 16);
+
+        Socket client = new SocketImpl(InetAddress.getLocalHost(), port, TestUtils.serializerSupplier.get());
+        assertEquals(ResponseType.ACCEPTED, client.connect(new ConnectionRequest("maklas", "123", 22, true), 5000).getType());
+
+        final AtomicInteger normals = new AtomicInteger();
+        final AtomicInteger highs = new AtomicInteger();
+        final AtomicInteger normalsBeforeLastHigh = new AtomicInteger(-1);
+        final AtomicInteger lows = new AtomicInteger();
+        final AtomicInteger highUnreliables = new AtomicInteger();
+        for (int i = 0; i < 300 && normals.get() < 200; i++) {
+            client.update(new SocketProcessor() {
+                @Override
+                public void process(Socket sock, Object o) {
+                    UpdateObject update = (UpdateObject) o;
+                    switch ((int) update.getX()) {
+                        case normal:
+                            assertEquals(normals.getAndIncrement(), update.getForce());
+                            break;
+                        case highReliable:
+                            assertEquals(highs.getAndIncrement(), update.getForce());
+                            if (highs.get() == 10) normalsBeforeLastHigh.set(normals.get());
+                            break;
+                        case lowUnreliable:
+                            lows.incrementAndGet();
+                            break;
+                        case highUnreliable:
+                            highUnreliables.incrementAndGet();
+                            break;
+                    }
+                }
+            });
+            Thread.sleep(16);
+        }
+
+        Log.debug("Normal before high: " + normalsBeforeLastHigh.get() + ", low unreliable received: " + lows.get());
+        assertEquals(200, normals.get());
+        assertEquals(10, highs.get());
+        assertTrue(normalsBeforeLastHigh.get() >= 0 && normalsBeforeLastHigh.get() < 20);
+        assertEquals(10, highUnreliables.get());
+        assertTrue(lows.get() < 100);
+        serverSocket.close();
+        client.close();
+    }
+
+    //Клиент ограничен окном, поэтому сообщения ждут в очереди. sendBig() между ними не должен их обогнать
+
+    @Test
+    public void testBigKeepsOrder() throws Exception {
+        final AtomicInteger received = new AtomicInteger();
+        final AtomicInteger outOfOrder = new AtomicInteger();
+        ServerSocket serverSocket = TestUtils.newServerSocket(TestUtils.udp(bigPort, 0, 0), new ServerAuthenticator() {
+            @Override
+            public void acceptConnection(Connection conn) {
+                conn.accept(null);
+            }
+        });
+        TestUtils.startUpdating(serverSocket, 16, new SocketProcessor() {
+            @Override
+            public void process(Socket sock, Object o) {
+                if (((UpdateObject) o).getForce() != received.getAndIncrement()) outOfOrder.incrementAndGet();
+            }
+        });
+        Socket client = new SocketImpl(InetAddress.getLocalHost(), bigPort, new MySerializer(64 * 1024).get());
+        try {
+            assertEquals(ResponseType.ACCEPTED, client.connect(new ConnectionRequest("maklas", "123", 22, true), 5000).getType());
+            client.setCongestionWindow(new AimdCongestionWindow(512, 1024, 2048));
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 3000; i++) {
+                sb.append('a');
+            }
+            int sent = 0;
+            for (int i = 0; i < 300; i++) {
+                client.send(new UpdateObject("Update", 0, 0, sent++));
+            }
+            client.sendBig(new UpdateObject(sb.toString(), 0, 0, sent++));
+            client.send(new UpdateObject("Update", 0, 0, sent++));
+            for (int i = 0; i < 100 && received.get() < sent; i++) {
+                client.update(new SocketProcessor() {
+                    @Override
+                    public void process(Socket sock, Object o) {
+
+                    }
+                });
+                Thread.sleep(16);
+            }
+            assertEquals(sent, received.get());
+            assertEquals(0, outOfOrder.get());
+        } finally {
+            serverSocket.close();
+            client.close();
+        }
+    }
+
+    @Override
+    public void acceptConnection(Connection conn) {
+        Socket socket = conn.accept(null);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 250; i++) {
+            sb.append('a');
+        }
+        String filler = sb.toString();
+        for (int i = 0; i < 200; i++) {
+            socket.send(new UpdateObject(filler, normal, 0, i));
+        }
+        for (int i = 0; i < 100; i++) {
+            socket.sendUnreliable(new UpdateObject(filler, lowUnreliable, 0, i), Priority.LOW);
+        }
+        for (int i = 0; i < 10; i++) {
+            socket.send(new UpdateObject("Important", highReliable, 0, i), Priority.HIGH);
+            socket.sendUnreliable(new UpdateObject("Important", highUnreliable, 0, i), Priority.HIGH);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package ru.maklas.mnet2;
+
+import org.junit.Test;
+import ru.maklas.mnet2.objects.ConnectionRequest;
+import ru.maklas.mnet2.objects.UpdateObject;
+
+import java.net.InetAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestReceiveWindow implements ServerAuthenticator {
+
+    //Сервер отправляет 1000 сообщений, а клиент полсекунды не вызывает update().
+    //Сервер должен остановиться, когда окно клиента закроется, и продолжить, когда клиент разгребёт очередь.
+
+    public static final int port = 9022;
+    public static final int batchPort = 9028;
+    private static final int messages = 1000;
+    private static final int window = 50;
+    private static final int batchSize = 20;
+    private volatile boolean batched;
+
+    @Test
+    public void testSlowConsumer() throws Exception {
+        batched = false;
+        testSlowConsumer(port);
+    }
+
+    //Окно считается в объектах: batch из 20 объектов занимает в нём 20 мест, а не одно
+    @Test
+    public void testSlowConsumerBatches() throws Exception {
+        batched = true;
+        testSlowConsumer(batchPort);
+    }
+
+    private void testSlowConsumer(int port) throws Exception {
+        int oldWindow = SocketImpl.receiveWindow;
+        SocketImpl.receiveWindow = window;
+        ServerSocket serverSocket = TestUtils.newServerSocket(TestUtils.udp(port, 0, 0), this);
+        TestUtils.startUpdating(serverSocket, 16);
+        Socket client = new SocketImpl(InetAddress.getLocalHost(), port, TestUtils.serializerSupplier.get());
+        try {
+            assertEquals(ResponseType.ACCEPTED, client.connect(new ConnectionRequest("maklas", "123", 22, true), 5000).getType());
+            Thread.sleep(500);
+            int waiting = client.getReceivingQueueSize();
+            Log.debug("Received while consumer was slow: " + waiting);
+            assertTrue(waiting >= window - batchSize && waiting < window * 2);
+
+            final AtomicInteger received = new AtomicInteger();
+            for (int i = 0; i < 500 && received.get() < messages; i++) {
+                client.update(new SocketProcessor() {
+                    @Override
+                    public void process(Socket sock, Object o) {
+                        assertEquals(received.getAndIncrement(), ((UpdateObject) o).getForce());
+                    }
+                });
+                Thread.sleep(16);
+            }
+            assertEquals(messages, received.get());
+            assertTrue(client.getReceivingQueueHighWaterMark() < window * 2);
+        } finally {
+            SocketImpl.receiveWindow = oldWindow;
+            serverSocket.close();
+            client.close();
+        }
+    }
+
+    @Override
+    public void acceptConnection(Connection conn) {
+        Socket socket = conn.accept(null);
+        if (batched) {
+            for (int i = 0; i < messages; i += batchSize) {
+                NetBatch batch = new NetBatch();
+                for (int j = i; j < i + batchSize; j++) {
+                    batch.add(new UpdateObject("Update", 0, 0, j));
+                }
+                socket.send(batch);
+            }
+        } else {
+            for (int i = 0; i < messages; i++) {
+                socket.send(new UpdateObject("Update", 0, 0, i));
+            }
+        }
+    }
+}
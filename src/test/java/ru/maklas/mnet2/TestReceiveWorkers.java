@@ -0,0 +1,88 @@
+package ru.maklas.mnet2;
+
+import com.badlogic.gdx.utils.Array;
+import org.junit.Test;
+import ru.maklas.mnet2.objects.ConnectionRequest;
+import ru.maklas.mnet2.objects.ConnectionResponse;
+import ru.maklas.mnet2.objects.UpdateObject;
+
+import java.net.InetAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestReceiveWorkers implements ServerAuthenticator {
+
+    //Несколько клиентов шлют серверу с 3 потоками-обработчиками. Порядок каждого сокета должен сохраниться.
+
+    public static final int port = 9008;
+    private static final int clients = 6;
+    private static final int messages = 1000;
+
+    @Test
+    public void testWorkers() throws Exception {
+        final ConcurrentHashMap<Socket, AtomicInteger> counters = new ConcurrentHashMap<Socket, AtomicInteger>();
+        final AtomicInteger errors = new AtomicInteger();
+
+        ServerSocket serverSocket = new ServerSocket(TestUtils.udp(port, 0, 10), 512, 15000, 1500, 125, 3, this, TestUtils.serializerSupplier);
+        assertEquals(3, serverSocket.getReceiveWorkers());
+        TestUtils.startUpdating(serverSocket, 16, new SocketProcessor() {
+            @Override
+            public void process(Socket s, Object o) {
+                AtomicInteger counter = counters.get(s);
+                if (counter == null){
+                    counter = new AtomicInteger();
+                    counters.put(s, counter);
+                }
+                if (counter.getAndIncrement() != ((UpdateObject) o).getForce()){
+                    errors.incrementAndGet();
+                }
+            }
+        });
+
+        Array<Socket> sockets = new Array<Socket>();
+        for (int i = 0; i < clients; i++) {
+            Socket client = new SocketImpl(InetAddress.getLocalHost(), port, TestUtils.serializerSupplier.get());
+            ServerResponse response = client.connect(new ConnectionRequest("maklas" + i, "123", 22, true), 5000);
+            assertEquals(ResponseType.ACCEPTED, response.getType());
+            sockets.add(client);
+        }
+
+        for (Socket socket : sockets) {
+            for (int i = 0; i < messages; i++) {
+                socket.send(new UpdateObject("Worker", 1, 2, i));
+            }
+        }
+
+        SocketProcessor ignore = new SocketProcessor() {
+            @Override
+            public void process(Socket s, Object o) {}
+        };
+        for (int i = 0; i < 100; i++) {
+            for (Socket socket : sockets) {
+                socket.update(ignore);
+            }
+            Thread.sleep(30);
+        }
+
+        assertEquals(0, errors.get());
+        assertEquals(clients, counters.size());
+        for (AtomicInteger counter : counters.values()) {
+            assertEquals(messages, counter.get());
+        }
+
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+        serverSocket.close();
+    }
+
+    @Override
+    public void acceptConnection(Connection conn) {
+        if ((conn.getRequest() instanceof ConnectionRequest)
+                && "123".equals(((ConnectionRequest) conn.getRequest()).getPassword())){
+            conn.accept(new ConnectionResponse("Welcome"));
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package ru.maklas.mnet2;
+
+import org.junit.Test;
+import ru.maklas.mnet2.objects.ByteSerializer;
+import ru.maklas.mnet2.objects.ConnectionRequest;
+import ru.maklas.mnet2.objects.UpdateObject;
+
+import java.net.InetAddress;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestReliableUnordered implements ServerAuthenticator {
+
+    //Неупорядоченные надёжные пакеты вперемешку с упорядоченными при потерях.
+    //Упорядоченные приходят по порядку, неупорядоченные - все и без дубликатов.
+
+    public static final int port = 9012;
+    public static final int lossPort = 9034;
+
+    @Test
+    public void testReliableUnordered() throws Exception {
+        ServerSocket serverSocket = TestUtils.newServerSocket(TestUtils.udp(port, 0, 20), this);
+        TestUtils.startUpdating(serverSocket, 16);
+
+        Socket client = new SocketImpl(InetAddress.getLocalHost(), port, TestUtils.serializerSupplier.get());
+        ServerResponse response = client.connect(new ConnectionRequest("maklas", "123", 22, true), 5000);
+        assertEquals(ResponseType.ACCEPTED, response.getType());
+
+        final AtomicInteger ordered = new AtomicInteger(0);
+        final Set<Integer> unordered = new HashSet<Integer>();
+        for (int i = 0; i < 100 && (ordered.get() < 1000 || unordered.size() < 1000); i++) {
+            client.update(new SocketProcessor() {
+                @Override
+                public void process(Socket sock, Object o) {
+                    UpdateObject update = (UpdateObject) o;
+                    if (update.getX() == 1) {
+                        assertEquals(ordered.getAndIncrement(), update.getForce());
+                    } else {
+                        assertTrue("Duplicate " + update.getForce(), unordered.add(update.getForce()));
+                    }
+                }
+            });
+            Thread.sleep(50);
+        }
+
+        assertEquals(1000, ordered.get());
+        assertEquals(1000, unordered.size());
+        serverSocket.close();
+        client.close();
+    }
+
+    //Потерянный неупорядоченный пакет не задерживает упорядоченные: у него свой seq
+    @Test
+    public void testLossDoesNotBlockOrdered() throws Exception {
+        ServerSocket serverSocket = TestUtils.newServerSocket(TestUtils.udp(lossPort, 0, 0), this);
+        RecordingUDPSocket udpA = new RecordingUDPSocket();
+        RecordingUDPSocket udpB = new RecordingUDPSocket();
+        SocketImpl a = TestUtils.subSocket(serverSocket, udpA, new ByteSerializer());
+        SocketImpl b = TestUtils.subSocket(serverSocket, udpB, new ByteSerializer());
+        try {
+            a.send(new byte[]{1});
+            byte[] first = udpA.take();
+            a.sendReliableUnordered(new byte[]{2});
+            byte[] lost = udpA.take();
+            a.send(new byte[]{3});
+            byte[] second = udpA.take();
+
+            b.receiveData(first, first[0], first.length);
+            b.receiveData(second, second[0], second.length);
+            assertEquals(1, ((byte[]) b.queue.poll())[0]);
+            assertEquals(3, ((byte[]) b.queue.poll())[0]);
+
+            //Пересылка доходит один раз
+            b.receiveData(lost, lost[0], lost.length);
+            b.receiveData(lost, lost[0], lost.length);
+            assertEquals(2, ((byte[]) b.queue.poll())[0]);
+            assertNull(b.queue.poll());
+
+            //Подтверждения обоих seq освобождают все три пакета
+            b.flushAcks();
+            for (byte[] ack : udpB.takeAll()) {
+                a.receiveData(ack, ack[0], ack.length);
+            }
+            assertEquals(0, a.getBytesInFlight());
+        } finally {
+            serverSocket.close();
+            udpA.close();
+            udpB.close();
+        }
+    }
+
+    @Override
+    public void acceptConnection(Connection conn) {
+        Socket socket = conn.accept(null);
+        for (int i = 0; i < 1000; i++) {
+            socket.send(new UpdateObject("Ordered", 1, 0, i));
+            socket.sendReliableUnordered(new UpdateObject("Unordered", 2, 0, i));
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package ru.maklas.mnet2;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestReorderWindow {
+
+    @Test
+    public void testInsertRemoveGrow() {
+        ReorderWindow<Integer> window = new ReorderWindow<Integer>(1000);
+        assertEquals(1024, window.getMaxSize());
+
+        int expected = 10;
+        //Пакеты пришли в обратном порядке, кроме ожидаемого
+        for (int seq = expected + 999; seq > expected; seq--) {
+            assertTrue(window.insert(expected, seq, seq));
+        }
+        assertEquals(999, window.size());
+        assertTrue(window.contains(expected, expected + 500));
+        assertFalse(window.contains(expected, expected));
+        assertFalse(window.insert(expected, expected - 1, 0));
+        assertFalse(window.insert(expected, expected + 1024, 0));
+        assertFalse(window.fits(expected, expected + 1024));
+
+        assertNull(window.remove(expected));
+        expected++;
+        while (window.size() > 0) {
+            assertEquals(Integer.valueOf(expected), window.remove(expected));
+            expected++;
+        }
+        assertEquals(1010, expected);
+    }
+
+    @Test
+    public void testSeqOverflow() {
+        ReorderWindow<String> window = new ReorderWindow<String>(128);
+        int expected = Integer.MAX_VALUE - 5;
+        for (int i = 1; i < 100; i++) {
+            window.insert(expected, expected + i, "a");
+        }
+        assertEquals(99, window.size());
+        assertNull(window.remove(expected));
+        for (int i = 1; i < 100; i++) {
+            assertEquals("a", window.remove(expected + i));
+        }
+        assertEquals(0, window.size());
+    }
+}
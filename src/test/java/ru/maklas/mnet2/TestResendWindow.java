@@ -0,0 +1,55 @@
+package ru.maklas.mnet2;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class TestResendWindow {
+
+    @Test
+    public void testPutRemoveGrow() {
+        ResendWindow window = new ResendWindow(4);
+        SocketImpl.ResendPacket[] packets = new SocketImpl.ResendPacket[1000];
+        for (int i = 0; i < packets.length; i++) {
+            packets[i] = new SocketImpl.ResendPacket();
+            window.put(100 + i, packets[i]);
+        }
+        assertEquals(1000, window.size());
+        assertEquals(100, window.first());
+        assertEquals(1100, window.end());
+
+        //Подтверждения в случайном порядке
+        for (int i = 1; i < packets.length; i += 2) {
+            assertSame(packets[i], window.remove(100 + i));
+        }
+        assertNull(window.remove(101));
+        assertEquals(500, window.size());
+        assertEquals(100, window.first());
+
+        assertSame(packets[0], window.remove(100));
+        assertEquals(102, window.first());
+
+        int count = 0;
+        for (int seq = window.first(); seq != window.end(); seq++) {
+            if (window.get(seq) != null) count++;
+        }
+        assertEquals(499, count);
+    }
+
+    @Test
+    public void testSeqOverflow() {
+        ResendWindow window = new ResendWindow();
+        int start = Integer.MAX_VALUE - 10;
+        for (int i = 0; i < 20; i++) {
+            window.put(start + i, new SocketImpl.ResendPacket());
+        }
+        assertEquals(20, window.size());
+        for (int i = 0; i < 20; i++) {
+            window.remove(start + i);
+        }
+        assertEquals(0, window.size());
+        assertNull(window.get(start));
+    }
+}
@@ -0,0 +1,129 @@
+package ru.maklas.mnet2;
+
+import com.badlogic.gdx.utils.Array;
+import org.junit.Test;
+import ru.maklas.mnet2.objects.ConnectionRequest;
+import ru.maklas.mnet2.objects.ConnectionResponse;
+import ru.maklas.mnet2.objects.UpdateObject;
+import ru.maklas.mnet2.serialization.Serializer;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestReusePort implements ServerAuthenticator {
+
+    //Сервер с 3 сокетами на одном порту. Каждый подсокет отвечает через тот сокет, который его принял.
+    //Сериализатор не должен использоваться для десериализации из разных потоков слушателей
+
+    public static final int port = 9009;
+    private static final int clients = 5;
+    private static final int messages = 300;
+
+    private ServerSocket serverSocket;
+    private final AtomicInteger wrongListener = new AtomicInteger();
+    private final AtomicInteger sharedSerializer = new AtomicInteger();
+
+    @Test
+    public void testReusePort() throws Exception {
+        serverSocket = new ServerSocket(port, 3, this, new Supplier<Serializer>() {
+            @Override
+            public Serializer get() {
+                return new ThreadCheckingSerializer(TestUtils.serializerSupplier.get());
+            }
+        });
+        assertEquals(3, serverSocket.getListeners().length);
+        TestUtils.startUpdating(serverSocket, 16);
+
+        Array<Socket> sockets = new Array<Socket>();
+        for (int i = 0; i < clients; i++) {
+            Socket client = new SocketImpl(InetAddress.getLocalHost(), port, TestUtils.serializerSupplier.get());
+            ServerResponse response = client.connect(new ConnectionRequest("maklas" + i, "123", 22, true), 5000);
+            assertEquals(ResponseType.ACCEPTED, response.getType());
+            sockets.add(client);
+        }
+
+        final AtomicInteger received = new AtomicInteger();
+        for (int i = 0; i < 40; i++) {
+            for (Socket socket : sockets) {
+                socket.update(new SocketProcessor() {
+                    @Override
+                    public void process(Socket s, Object o) {
+                        received.incrementAndGet();
+                    }
+                });
+            }
+            Thread.sleep(50);
+        }
+
+        assertEquals(0, wrongListener.get());
+        assertEquals(0, sharedSerializer.get());
+        assertEquals(clients * messages, received.get());
+        assertEquals(clients, serverSocket.getSize());
+
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+        serverSocket.close();
+    }
+
+    /**
+     * Counts deserializations made by another thread than the first one
+     */
+    private class ThreadCheckingSerializer implements Serializer {
+        private final Serializer serializer;
+        private volatile Thread owner;
+
+        ThreadCheckingSerializer(Serializer serializer) {
+            this.serializer = serializer;
+        }
+
+        @Override
+        public byte[] serialize(Object o) {
+            return serializer.serialize(o);
+        }
+
+        @Override
+        public byte[] serialize(Object o, int offset) {
+            return serializer.serialize(o, offset);
+        }
+
+        @Override
+        public int serialize(Object o, byte[] buffer, int offset) {
+            return serializer.serialize(o, buffer, offset);
+        }
+
+        @Override
+        public Object deserialize(byte[] bytes) {
+            check();
+            return serializer.deserialize(bytes);
+        }
+
+        @Override
+        public Object deserialize(byte[] bytes, int offset, int length) {
+            check();
+            return serializer.deserialize(bytes, offset, length);
+        }
+
+        private void check() {
+            if (owner == null) owner = Thread.currentThread();
+            if (owner != Thread.currentThread()) sharedSerializer.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void acceptConnection(Connection conn) {
+        if ((conn.getRequest() instanceof ConnectionRequest)
+                && "123".equals(((ConnectionRequest) conn.getRequest()).getPassword())){
+            Socket socket = conn.accept(new ConnectionResponse("Welcome"));
+            if (!Arrays.asList(serverSocket.getListeners()).contains(socket.getUdp())){
+                wrongListener.incrementAndGet();
+            }
+            for (int i = 0; i < messages; i++) {
+                socket.send(new UpdateObject("ReusePort", 1, 2, i));
+            }
+        }
+    }
+}
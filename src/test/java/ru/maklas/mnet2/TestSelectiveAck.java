@@ -0,0 +1,54 @@
+package ru.maklas.mnet2;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestSelectiveAck {
+
+    public static final int port = 9010;
+
+    @Test
+    public void testAckBitfield() throws Exception {
+        int maxAckDelay = SocketImpl.maxAckDelay;
+        SocketImpl.maxAckDelay = Integer.MAX_VALUE;
+        JavaUDPSocket receiver = new JavaUDPSocket(port);
+        receiver.setReceiveTimeout(2000);
+        SocketImpl socket = new SocketImpl(InetAddress.getLocalHost(), port, TestUtils.serializerSupplier.get());
+        try {
+            //Подтверждения копятся и уходят одним пакетом
+            socket.sendAck(10);
+            socket.sendAck(12);
+            socket.sendAck(11);
+            socket.sendAck(5);
+            socket.flushAcks();
+            socket.flushAcks(); //Нечего отправлять
+
+            byte[] ack = receive(receiver);
+            assertEquals(PacketType.selectiveAck, ack[0]);
+            assertEquals(12, PacketType.extractInt(ack, 1));
+            assertEquals(1L | 1L << 1 | 1L << 6, PacketType.extractLong(ack, 5));
+            assertEquals(SocketImpl.receiveWindow, PacketType.extractShort(ack, 13) & 0xFFFF);
+
+            socket.sendAck(112);
+            socket.flushAcks();
+            ack = receive(receiver);
+            assertEquals(112, PacketType.extractInt(ack, 1));
+            assertEquals(0L, PacketType.extractLong(ack, 5));
+        } finally {
+            SocketImpl.maxAckDelay = maxAckDelay;
+            socket.getUdp().close();
+            receiver.close();
+        }
+    }
+
+    private static byte[] receive(UDPSocket udp) throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(512);
+        udp.receive(buffer);
+        assertEquals(PacketType.selectiveAckSize, buffer.position());
+        return buffer.array();
+    }
+}
@@ -0,0 +1,38 @@
+package ru.maklas.mnet2;
+
+import org.junit.Test;
+import ru.maklas.mnet2.objects.UpdateObject;
+import ru.maklas.mnet2.serialization.Serializer;
+
+import java.net.InetAddress;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TestSequenced {
+
+    //Старые и повторные sequenced пакеты отбрасываются
+
+    @Test
+    public void testDropsOld() throws Exception {
+        Serializer serializer = TestUtils.serializerSupplier.get();
+        SocketImpl socket = new SocketImpl(InetAddress.getLocalHost(), 9014, serializer);
+        try {
+            int[] seqs = {0, 2, 1, 2, 3, 5, 4};
+            for (int seq : seqs) {
+                byte[] packet = serializer.serialize(new UpdateObject("State", 0, 0, seq), 5);
+                packet[0] = PacketType.sequenced;
+                PacketType.putInt(packet, seq, 1);
+                socket.receiveData(packet, PacketType.sequenced, packet.length);
+            }
+
+            int[] expected = {0, 2, 3, 5};
+            for (int force : expected) {
+                assertEquals(force, ((UpdateObject) socket.queue.poll()).getForce());
+            }
+            assertNull(socket.queue.poll());
+        } finally {
+            socket.getUdp().close();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package ru.maklas.mnet2;
+
+import com.badlogic.gdx.utils.Array;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class TestSocketMap {
+
+    @Test
+    public void testPutGetRemove() throws Exception {
+        SocketMap map = new SocketMap();
+        Array<SocketImpl> sockets = new Array<SocketImpl>();
+        for (int i = 0; i < 5000; i++) {
+            InetAddress address = InetAddress.getByAddress(new byte[]{10, (byte) (i >> 8), (byte) i, 1});
+            SocketImpl socket = new SocketImpl(null, address, 7000 + (i % 3), 512);
+            map.put(socket);
+            sockets.add(socket);
+        }
+        assertEquals(5000, map.size());
+
+        for (SocketImpl socket : sockets) {
+            assertSame(socket, map.get(new InetSocketAddress(socket.address, socket.port)));
+        }
+        assertNull(map.get(InetAddress.getByAddress(new byte[]{10, 0, 0, 1}), 1));
+
+        for (int i = 0; i < sockets.size; i += 2) {
+            map.remove(sockets.get(i));
+        }
+        assertEquals(2500, map.size());
+        for (int i = 0; i < sockets.size; i++) {
+            SocketImpl socket = sockets.get(i);
+            if (i % 2 == 0) {
+                assertNull(map.get(socket.address, socket.port));
+            } else {
+                assertSame(socket, map.get(socket.address, socket.port));
+            }
+        }
+        assertEquals(2500, map.getSockets(new Array<Socket>()).size);
+    }
+
+    @Test
+    public void testIPv6() throws Exception {
+        SocketMap map = new SocketMap();
+        InetAddress v6 = InetAddress.getByName("::1");
+        InetAddress v4 = InetAddress.getByName("127.0.0.1");
+        SocketImpl s6 = new SocketImpl(null, v6, 9000, 512);
+        SocketImpl s4 = new SocketImpl(null, v4, 9000, 512);
+        map.put(s6);
+        map.put(s4);
+
+        assertSame(s6, map.get(v6, 9000));
+        assertSame(s4, map.get(v4, 9000));
+        assertNull(map.get(v6, 9001));
+
+        map.remove(s6);
+        assertNull(map.get(v6, 9000));
+        assertSame(s4, map.get(v4, 9000));
+        assertEquals(1, map.size());
+    }
+}
@@ -0,0 +1,276 @@
+package ru.maklas.mnet2;
+
+import org.junit.Test;
+import ru.maklas.mnet2.objects.ByteSerializer;
+import ru.maklas.mnet2.congestion.AimdCongestionWindow;
+import ru.maklas.mnet2.objects.ConnectionRequest;
+import ru.maklas.mnet2.objects.UpdateObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.net.InetAddress;
+import java.nio.channels.Channels;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestStreams implements ServerAuthenticator {
+
+    //Потоки известного и неизвестного размера при потерях, отклонённый поток и объекты вперемешку с ними.
+
+    public static final int port = 9015;
+    public static final int slowPort = 9029;
+    public static final int windowedPort = 9032;
+    public static final int wrapPort = 9036;
+    private static final int slowWindow = 64 * 1024;
+    private static final int windowedObjects = 100;
+
+    private final byte[] data = new byte[2 * 1024 * 1024 + 123];
+    private final AtomicReference<Boolean> firstSent = new AtomicReference<Boolean>();
+    private final AtomicReference<Boolean> rejectedSent = new AtomicReference<Boolean>();
+    private final byte[] smallData = new byte[10 * 1000 + 3];
+    private volatile boolean slow;
+    private volatile boolean windowed;
+
+    @Test
+    public void testStreams() throws Exception {
+        new Random(7).nextBytes(data);
+        ServerSocket serverSocket = TestUtils.newServerSocket(TestUtils.udp(port, 0, 10), this);
+        TestUtils.startUpdating(serverSocket, 16);
+
+        Socket client = new SocketImpl(InetAddress.getLocalHost(), port, TestUtils.serializerSupplier.get());
+        ServerResponse response = client.connect(new ConnectionRequest("maklas", "123", 22, true), 5000);
+        assertEquals(ResponseType.ACCEPTED, response.getType());
+
+        final ByteArrayOutputStream first = new ByteArrayOutputStream();
+        final ByteArrayOutputStream second = new ByteArrayOutputStream();
+        final AtomicInteger finished = new AtomicInteger();
+        final AtomicInteger objects = new AtomicInteger();
+        final StreamListener listener = new StreamListener() {
+            @Override
+            public void progress(Socket socket, long transferred, long total) {
+            }
+
+            @Override
+            public void finished(Socket socket, boolean success) {
+                assertTrue(success);
+                finished.incrementAndGet();
+            }
+        };
+
+        for (int i = 0; i < 400 && (finished.get() < 2 || firstSent.get() == null || rejectedSent.get() == null); i++) {
+            client.update(new SocketProcessor() {
+                @Override
+                public void process(Socket sock, Object o) {
+                    if (o instanceof IncomingStream) {
+                        IncomingStream stream = (IncomingStream) o;
+                        String name = stream.getHeader() == null ? null : ((UpdateObject) stream.getHeader()).getId();
+                        if ("first".equals(name)) {
+                            assertEquals(1, objects.get());
+                            assertEquals(data.length, stream.getSize());
+                            stream.accept(first, listener);
+                        } else if ("second".equals(name)) {
+                            assertEquals(-1, stream.getSize());
+                            stream.accept(Channels.newChannel(second), listener);
+                        } else {
+                            assertEquals(2, objects.get());
+                            stream.reject();
+                        }
+                    } else {
+                        assertEquals(objects.getAndIncrement(), ((UpdateObject) o).getForce());
+                    }
+                }
+            });
+            Thread.sleep(50);
+        }
+
+        assertEquals(2, finished.get());
+        assertArrayEquals(data, first.toByteArray());
+        assertArrayEquals(data, second.toByteArray());
+        assertEquals(Boolean.TRUE, firstSent.get());
+        assertEquals(Boolean.FALSE, rejectedSent.get());
+        serverSocket.close();
+        client.close();
+    }
+
+    //Клиент долго не вызывает update(). Частей потока в очереди не больше, чем кредит streamWindow, а не всё окно получения
+    @Test
+    public void testSlowConsumer() throws Exception {
+        new Random(8).nextBytes(data);
+        int oldWindow = SocketImpl.streamWindow;
+        SocketImpl.streamWindow = slowWindow;
+        slow = true;
+        ServerSocket serverSocket = TestUtils.newServerSocket(TestUtils.udp(slowPort, 0, 0), this);
+        TestUtils.startUpdating(serverSocket, 16);
+        Socket client = new SocketImpl(InetAddress.getLocalHost(), slowPort, TestUtils.serializerSupplier.get());
+        try {
+            assertEquals(ResponseType.ACCEPTED, client.connect(new ConnectionRequest("maklas", "123", 22, true), 5000).getType());
+            //Кредит, IncomingStream и пробы, которые отправитель шлёт раз в resendCD с удвоением
+            int maxParts = slowWindow / (512 - PacketType.streamHeaderSize) + 1 + 8;
+            Thread.sleep(500);
+            int waiting = client.getReceivingQueueSize();
+            Log.debug("Stream parts queued before accept: " + waiting);
+            assertTrue(waiting <= maxParts);
+
+            final ByteArrayOutputStream received = new ByteArrayOutputStream();
+            final AtomicInteger finished = new AtomicInteger();
+            SocketProcessor processor = new SocketProcessor() {
+                @Override
+                public void process(Socket sock, Object o) {
+                    ((IncomingStream) o).accept(received, new StreamListener() {
+                        @Override
+                        public void progress(Socket socket, long transferred, long total) {
+                        }
+
+                        @Override
+                        public void finished(Socket socket, boolean success) {
+                            assertTrue(success);
+                            finished.incrementAndGet();
+                        }
+                    });
+                }
+            };
+            client.update(processor);
+            Thread.sleep(500);
+            waiting = client.getReceivingQueueSize();
+            Log.debug("Stream parts queued after accept: " + waiting);
+            assertTrue(waiting <= maxParts);
+
+            for (int i = 0; i < 400 && finished.get() == 0; i++) {
+                client.update(processor);
+                Thread.sleep(16);
+            }
+            assertEquals(1, finished.get());
+            assertArrayEquals(data, received.toByteArray());
+            assertTrue(client.getReceivingQueueHighWaterMark() <= maxParts + 1);
+        } finally {
+            SocketImpl.streamWindow = oldWindow;
+            slow = false;
+            serverSocket.close();
+            client.close();
+        }
+    }
+
+    //Маленькое окно перегрузки: объекты ждут в очереди, а поток встаёт за ними и не обгоняет их
+    @Test
+    public void testCongestionWindow() throws Exception {
+        new Random(9).nextBytes(smallData);
+        windowed = true;
+        ServerSocket serverSocket = TestUtils.newServerSocket(TestUtils.udp(windowedPort, 0, 0), this);
+        TestUtils.startUpdating(serverSocket, 16);
+        Socket client = new SocketImpl(InetAddress.getLocalHost(), windowedPort, TestUtils.serializerSupplier.get());
+        try {
+            assertEquals(ResponseType.ACCEPTED, client.connect(new ConnectionRequest("maklas", "123", 22, true), 5000).getType());
+            final ByteArrayOutputStream received = new ByteArrayOutputStream();
+            final AtomicInteger finished = new AtomicInteger();
+            final AtomicInteger objects = new AtomicInteger();
+            final AtomicInteger streamAt = new AtomicInteger(-1);
+            SocketProcessor processor = new SocketProcessor() {
+                @Override
+                public void process(Socket sock, Object o) {
+                    if (o instanceof IncomingStream) {
+                        streamAt.set(objects.get());
+                        ((IncomingStream) o).accept(received, new StreamListener() {
+                            @Override
+                            public void progress(Socket socket, long transferred, long total) {
+                            }
+
+                            @Override
+                            public void finished(Socket socket, boolean success) {
+                                assertTrue(success);
+                                finished.incrementAndGet();
+                            }
+                        });
+                    } else {
+                        assertEquals(objects.getAndIncrement(), ((UpdateObject) o).getForce());
+                    }
+                }
+            };
+            for (int i = 0; i < 400 && (finished.get() == 0 || objects.get() < 2 * windowedObjects); i++) {
+                client.update(processor);
+                Thread.sleep(16);
+            }
+            assertEquals(windowedObjects, streamAt.get());
+            assertEquals(2 * windowedObjects, objects.get());
+            assertEquals(1, finished.get());
+            assertArrayEquals(smallData, received.toByteArray());
+        } finally {
+            windowed = false;
+            serverSocket.close();
+            client.close();
+        }
+    }
+
+    //После переполнения id потока не должен совпасть с потоком, который ещё отправляется
+    @Test
+    public void testStreamIdWrap() throws Exception {
+        ServerSocket serverSocket = TestUtils.newServerSocket(TestUtils.udp(wrapPort, 0, 0), this);
+        RecordingUDPSocket udp = new RecordingUDPSocket();
+        SocketImpl socket = TestUtils.subSocket(serverSocket, udp, new ByteSerializer());
+        try {
+            //Никто не подтверждает, поэтому оба потока остаются активными
+            socket.streamIdCounter = 0x7FFF;
+            assertEquals(0x7FFF, sendAndGetId(socket, udp));
+            assertEquals(0, sendAndGetId(socket, udp));
+
+            socket.streamIdCounter = 0x7FFF;
+            assertEquals(1, sendAndGetId(socket, udp));
+        } finally {
+            serverSocket.close();
+            udp.close();
+        }
+    }
+
+    private int sendAndGetId(SocketImpl socket, RecordingUDPSocket udp) {
+        socket.sendStream(new ByteArrayInputStream(data), data.length, null, null);
+        byte[] start = null;
+        for (byte[] packet : udp.takeAll()) {
+            if (packet[0] == PacketType.streamStart) start = packet;
+        }
+        assertNotNull(start);
+        return PacketType.extractShort(start, 5);
+    }
+
+    @Override
+    public void acceptConnection(Connection conn) {
+        Socket socket = conn.accept(null);
+        if (windowed) {
+            socket.setCongestionWindow(new AimdCongestionWindow(512, 1024, 1024));
+            for (int i = 0; i < windowedObjects; i++) {
+                socket.send(new UpdateObject("Before", 0, 0, i));
+            }
+            socket.sendStream(new ByteArrayInputStream(smallData), smallData.length, null, null);
+            for (int i = windowedObjects; i < 2 * windowedObjects; i++) {
+                socket.send(new UpdateObject("After", 0, 0, i));
+            }
+            return;
+        }
+        if (slow) {
+            socket.sendStream(new ByteArrayInputStream(data), data.length, null, null);
+            return;
+        }
+        socket.send(new UpdateObject("Before", 0, 0, 0));
+        socket.sendStream(new ByteArrayInputStream(data), data.length, new UpdateObject("first", 0, 0, 0), listener(firstSent));
+        socket.sendStream(new ByteArrayInputStream(data), -1, new UpdateObject("second", 0, 0, 0), null);
+        socket.send(new UpdateObject("After", 0, 0, 1));
+        socket.sendStream(new ByteArrayInputStream(data), data.length, null, listener(rejectedSent));
+    }
+
+    private static StreamListener listener(final AtomicReference<Boolean> result){
+        return new StreamListener() {
+            @Override
+            public void progress(Socket socket, long transferred, long total) {
+            }
+
+            @Override
+            public void finished(Socket socket, boolean success) {
+                result.set(success);
+            }
+        };
+    }
+}
@@ -0,0 +1,110 @@
+package ru.maklas.mnet2;
+
+import com.badlogic.gdx.utils.Array;
+import org.junit.Test;
+import ru.maklas.mnet2.objects.ConnectionRequest;
+import ru.maklas.mnet2.objects.UpdateObject;
+
+import java.net.InetAddress;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestTimingWheel implements ServerAuthenticator {
+
+    public static final int port = 9020;
+
+    //Таймеры срабатывают не раньше срока и не позже следующего тика на всех уровнях колеса
+
+    @Test
+    public void testFiresOnTime() throws Exception {
+        long start = 1000000;
+        TimingWheel<Long> wheel = new TimingWheel<Long>(1, start);
+        Random random = new Random(1);
+        int count = 5000;
+        for (int i = 0; i < count; i++) {
+            long delay = i < 100 ? i : random.nextInt(i % 3 == 0 ? 300000 : 5000);
+            wheel.schedule(start + delay, start + delay, i);
+        }
+        wheel.schedule(start - 10, start - 10, -1); //Уже просрочен
+        assertEquals(count + 1, wheel.size());
+
+        Array<TimingWheel.Timer<Long>> fired = new Array<TimingWheel.Timer<Long>>();
+        int firedCount = 0;
+        long now = start;
+        while (firedCount < count + 1) {
+            wheel.advance(now, fired);
+            for (TimingWheel.Timer<Long> timer : fired) {
+                long deadline = timer.owner;
+                assertTrue("Fired early: " + deadline + " at " + now, deadline <= now);
+                assertTrue("Fired late: " + deadline + " at " + now, now - deadline <= 16 || timer.version == -1);
+            }
+            firedCount += fired.size;
+            fired.clear();
+            now += 1 + random.nextInt(16);
+            assertTrue(now < start + 400000);
+        }
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testFarDeadline() throws Exception {
+        TimingWheel<Long> wheel = new TimingWheel<Long>(1000, 0);
+        long deadline = 1000L * (1 << 24) * 3; //Дальше чем охватывает колесо
+        wheel.schedule(deadline, deadline, 0);
+
+        Array<TimingWheel.Timer<Long>> fired = new Array<TimingWheel.Timer<Long>>();
+        wheel.advance(deadline - 1000, fired);
+        assertEquals(0, fired.size);
+        wheel.advance(deadline, fired);
+        assertEquals(1, fired.size);
+    }
+
+    //Сокеты сервера не обновляются пользователем. Пересылку при потерях делает только таймер сервера
+    @Test
+    public void testServerResends() throws Exception {
+        final ServerSocket serverSocket = TestUtils.newServerSocket(TestUtils.udp(port, 0, 30), this);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!serverSocket.isClosed()) {
+                    serverSocket.update();
+                    TestUtils.sleep(16);
+                }
+            }
+        }).start();
+
+        Socket client = new SocketImpl(InetAddress.getLocalHost(), port, TestUtils.serializerSupplier.get());
+        assertEquals(ResponseType.ACCEPTED, client.connect(new ConnectionRequest("maklas", "123", 22, true), 5000).getType());
+
+        final AtomicInteger received = new AtomicInteger();
+        int maxScheduled = 0;
+        for (int i = 0; i < 200 && received.get() < 300; i++) {
+            maxScheduled = Math.max(maxScheduled, serverSocket.getScheduledChecks());
+            client.update(new SocketProcessor() {
+                @Override
+                public void process(Socket sock, Object o) {
+                    assertEquals(received.getAndIncrement(), ((UpdateObject) o).getForce());
+                }
+            });
+            Thread.sleep(25);
+        }
+
+        assertEquals(300, received.get());
+        //Один сокет: текущий таймер и, может быть, один заменённый более ранним
+        Log.debug("Max scheduled checks: " + maxScheduled);
+        assertTrue(maxScheduled <= 2);
+        serverSocket.close();
+        client.close();
+    }
+
+    @Override
+    public void acceptConnection(Connection conn) {
+        Socket socket = conn.accept(null);
+        for (int i = 0; i < 300; i++) {
+            socket.send(new UpdateObject("Timer", 0, 0, i));
+        }
+    }
+}
@@ -4,7 +4,9 @@ import com.badlogic.gdx.utils.Array;
 import ru.maklas.mnet2.objects.MySerializer;
 import ru.maklas.mnet2.serialization.Serializer;
 
+import java.net.InetAddress;
 import java.net.SocketException;
+import java.net.UnknownHostException;
 import java.util.Random;
 
 public class TestUtils {
@@ -46,6 +48,15 @@ public class TestUtils {
         return new ServerSocket(udp, 512, 15000, 1500, 125, auth, serializerSupplier);
     }
 
+    /**
+     * Socket as server creates it after accept, but not added to the server, so nothing updates it in background
+     */
+    public static SocketImpl subSocket(ServerSocket serverSocket, UDPSocket udp, Serializer serializer) throws UnknownHostException {
+        SocketImpl socket = new SocketImpl(udp, InetAddress.getLocalHost(), 1, 512);
+        socket.init(serverSocket, null, 15000, 1500, 125, serializer);
+        return socket;
+    }
+
     public static UDPSocket udp(int port, int additionalPing, double packetLoss) throws SocketException {
         UDPSocket udp = port < 1024 ? new JavaUDPSocket() : new JavaUDPSocket(port);
         if (additionalPing > 0){
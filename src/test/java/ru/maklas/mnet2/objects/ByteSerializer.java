@@ -0,0 +1,42 @@
+package ru.maklas.mnet2.objects;
+
+import ru.maklas.mnet2.serialization.Serializer;
+
+import java.util.Arrays;
+
+/**
+ * Sends byte[] as is, so received object shows exactly which bytes were given to deserialize
+ */
+public class ByteSerializer implements Serializer {
+
+    @Override
+    public byte[] serialize(Object o) {
+        return ((byte[]) o).clone();
+    }
+
+    @Override
+    public byte[] serialize(Object o, int offset) {
+        byte[] data = (byte[]) o;
+        byte[] ret = new byte[offset + data.length];
+        System.arraycopy(data, 0, ret, offset, data.length);
+        return ret;
+    }
+
+    @Override
+    public int serialize(Object o, byte[] buffer, int offset) {
+        byte[] data = (byte[]) o;
+        if (offset + data.length > buffer.length) throw new RuntimeException("Doesn't fit");
+        System.arraycopy(data, 0, buffer, offset, data.length);
+        return data.length;
+    }
+
+    @Override
+    public Object deserialize(byte[] bytes) {
+        return bytes.clone();
+    }
+
+    @Override
+    public Object deserialize(byte[] bytes, int offset, int length) {
+        return Arrays.copyOfRange(bytes, offset, offset + length);
+    }
+}